@@ -12,28 +12,75 @@
 
 public class Card {
 
+    /**
+     * The number of distinct cards in a standard deck.
+     */
+    public static final int COUNT = 52;
+
+    /**
+     * The number of cards in each suit, Ace through King.
+     */
+    public static final int SUIT_SIZE = 13;
+
+    /**
+     * The canonical cards, indexed by ordinal. Every deck and every game
+     * shares these instances, so dealing never has to create new cards.
+     */
+    private static final Card[] CARDS = new Card[COUNT];
+
+    static {
+        for (Suit s : Suit.values()) {
+            for (Rank r : Rank.values()) {
+                Card card = new Card(r, s);
+                CARDS[card.ordinal()] = card;
+            }
+        }
+    }
+
     /**
      * Rank of the card (Ace through King).
      */
-    private Rank rank;
+    private final Rank rank;
 
     /**
      * Suit of the card (Diamond, Heart, Spade, Club).
      */
-    private Suit suit;
+    private final Suit suit;
 
     /**
-     * Indicates whether or not the card is face up on the pile.
+     * Position of the card in a freshly filled deck: 13 * suit + rank.
      */
-    private boolean faceUp = true;
+    private final int ordinal;
 
     /**
-     * Constructs a new Card with the given rank and suit. Newly constructed
-     * cards are face-up by default.
+     * Constructs a new Card with the given rank and suit. Cards are
+     * immutable; whether a card is face up is a property of the pile it is
+     * in (see Deck#isFaceUp(int)). Prefer {@link #of(Rank, Suit)}, which
+     * returns the shared instance.
      */
     public Card(Rank rank, Suit suit) {
         this.rank = rank;
         this.suit = suit;
+        this.ordinal = suit.ordinal() * SUIT_SIZE + rank.ordinal();
+    }
+
+    /**
+     * Returns the shared card with the given rank and suit.
+     *
+     * @return the canonical Card for rank and suit
+     */
+    public static Card of(Rank rank, Suit suit) {
+        return CARDS[suit.ordinal() * SUIT_SIZE + rank.ordinal()];
+    }
+
+    /**
+     * Returns the shared card with the given ordinal.
+     *
+     * @param ordinal a value from 0 through 51
+     * @return the canonical Card whose ordinal() is ordinal
+     */
+    public static Card of(int ordinal) {
+        return CARDS[ordinal];
     }
 
     /**
@@ -56,12 +103,13 @@ public class Card {
     }
 
     /**
-     * Indicates whether or not the card is face up.
+     * Returns the index of this card in the canonical table, from 0 through
+     * 51. Cards of the same suit are contiguous and ordered by rank.
      *
-     * @return true if card is face up. False if card is face down.
+     * @return ordinal of card
      */
-    public boolean isFaceUp() {
-        return faceUp;
+    public int ordinal() {
+        return ordinal;
     }
 
     /**
@@ -74,14 +122,6 @@ public class Card {
         return (getSuit() == Suit.HEARTS || getSuit() == Suit.DIAMONDS);
     }
 
-    /**
-     * Flips the card from face up to face down. Changes boolean faceUp to
-     * false.
-     */
-    public void flipOver() {
-        faceUp = !faceUp;
-    }
-
     /**
      * Overrides the toString method.
      *
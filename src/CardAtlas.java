@@ -0,0 +1,154 @@
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.GraphicsEnvironment;
+import java.awt.RenderingHints;
+import java.awt.Transparency;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import javax.imageio.ImageIO;
+
+/**
+ * The card images for the GUI, read once and scaled once. The 52 faces and
+ * the card back are read from card-images in parallel, scaled to the size
+ * the cards are drawn at, and packed into a single image laid out like the
+ * deck: a row per suit, a column per rank, and the back in a row of its
+ * own. On a screen the atlas is created compatible with the display, so
+ * Java2D can keep it in video memory. Drawing a card then copies one
+ * rectangle of the atlas, with no scaling and no disk access.
+ * <p>
+ * An atlas never changes once loaded, so any thread may draw from it.
+ */
+public class CardAtlas {
+
+    /** Number of images: a face per card and the back. */
+    public static final int SPRITES = Card.COUNT + 1;
+
+    /** Sprite index of the card back. */
+    public static final int BACK = Card.COUNT;
+
+    /** Sprites per row of the atlas; faces are laid out by ordinal, a suit per row. */
+    private static final int COLUMNS = Card.SUIT_SIZE;
+
+    /** The sprites, each width by height. */
+    private final BufferedImage atlas;
+
+    /** Width of a sprite. */
+    private final int width;
+
+    /** Height of a sprite. */
+    private final int height;
+
+    private CardAtlas(BufferedImage atlas, int width, int height) {
+        this.atlas = atlas;
+        this.width = width;
+        this.height = height;
+    }
+
+    /**
+     * Reads every card image, in the common pool, and returns an atlas of
+     * them scaled to width by height.
+     *
+     * @throws IOException if an image is missing or cannot be read
+     */
+    public static CardAtlas load(int width, int height) throws IOException {
+        ForkJoinPool pool = ForkJoinPool.commonPool();
+        List<ForkJoinTask<BufferedImage>> tasks = new ArrayList<>(SPRITES);
+        for (int i = 0; i < SPRITES; i++) {
+            File file = new File(filename(i));
+            tasks.add(pool.submit(() -> read(file)));
+        }
+        int rows = (SPRITES + COLUMNS - 1) / COLUMNS;
+        BufferedImage atlas = createImage(COLUMNS * width, rows * height);
+        Graphics2D g = atlas.createGraphics();
+        try {
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+              RenderingHints.VALUE_INTERPOLATION_BICUBIC);
+            g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            for (int i = 0; i < SPRITES; i++) {
+                BufferedImage image = tasks.get(i).get();
+                g.drawImage(image, (i % COLUMNS) * width, (i / COLUMNS) * height, width, height, null);
+            }
+        } catch (ExecutionException ex) {
+            // The pool wraps the exception a read throws, perhaps more than once
+            for (Throwable cause = ex.getCause(); cause != null; cause = cause.getCause()) {
+                if (cause instanceof IOException) {
+                    throw (IOException) cause;
+                }
+            }
+            throw new IOException(ex.getCause());
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while loading card images");
+        } finally {
+            g.dispose();
+        }
+        return new CardAtlas(atlas, width, height);
+    }
+
+    /** Returns the file of sprite i. */
+    private static String filename(int i) {
+        return i == BACK ? Klondike.imageFilename(Card.of(0), false)
+          : Klondike.imageFilename(Card.of(i), true);
+    }
+
+    /** Reads the image in file. */
+    private static BufferedImage read(File file) throws IOException {
+        BufferedImage image = ImageIO.read(file);
+        if (image == null) {
+            throw new IOException("Not an image: " + file);
+        }
+        return image;
+    }
+
+    /**
+     * Returns an empty, translucent image of the given size, in the format
+     * of the screen if there is one.
+     */
+    private static BufferedImage createImage(int width, int height) {
+        if (GraphicsEnvironment.isHeadless()) {
+            return new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB_PRE);
+        }
+        return GraphicsEnvironment.getLocalGraphicsEnvironment().getDefaultScreenDevice()
+          .getDefaultConfiguration().createCompatibleImage(width, height, Transparency.TRANSLUCENT);
+    }
+
+    /** Returns the width of a card. */
+    public int getWidth() {
+        return width;
+    }
+
+    /** Returns the height of a card. */
+    public int getHeight() {
+        return height;
+    }
+
+    /** Returns the sprite index of card, shown face up or down. */
+    public static int sprite(Card card, boolean faceUp) {
+        return faceUp ? card.ordinal() : BACK;
+    }
+
+    /** Draws card, face up or down, with its top left corner at x, y. */
+    public void draw(Graphics g, Card card, boolean faceUp, int x, int y) {
+        int sprite = sprite(card, faceUp);
+        int sx = (sprite % COLUMNS) * width;
+        int sy = (sprite / COLUMNS) * height;
+        g.drawImage(atlas, x, y, x + width, y + height, sx, sy, sx + width, sy + height, null);
+    }
+
+    /**
+     * Returns the image of card, face up or down. The image shares its pixels
+     * with the atlas and must not be drawn on.
+     */
+    public BufferedImage getImage(Card card, boolean faceUp) {
+        int sprite = sprite(card, faceUp);
+        return atlas.getSubimage((sprite % COLUMNS) * width, (sprite / COLUMNS) * height,
+          width, height);
+    }
+}
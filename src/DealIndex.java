@@ -0,0 +1,211 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Index of deal numbers the solver has won, for dealing only winnable games
+ * (see KlondikeModel(DealIndex) and newGame(Level)). The index is a file
+ * built offline by main, which rates deals in parallel with DifficultyRater;
+ * at play time it is memory-mapped, and picking a deal, of any level or of a
+ * given one, reads one fixed-size record, so starting a game never runs the
+ * solver.
+ * <p>
+ * The file holds a header of magic number, version, and the number of easy,
+ * medium and hard deals, followed by a 16-byte record per deal: the deal
+ * number, the solver's node count, the length of the first solution it
+ * found and the difficulty score in 1/65535ths. Records are grouped by
+ * level, easiest first. An index is safe to use from several threads.
+ */
+public class DealIndex {
+
+    /** File the GUI deals from, if it exists. */
+    public static final String DEFAULT_FILE = "deals.idx";
+
+    /** Written at the start of an index file: "KDIX". */
+    private static final int MAGIC = 0x4B444958;
+
+    /** Version of the index file format. */
+    private static final int VERSION = 1;
+
+    /** Levels a winnable deal can have, in file order. */
+    private static final DifficultyRater.Level[] LEVELS = {
+        DifficultyRater.Level.EASY, DifficultyRater.Level.MEDIUM, DifficultyRater.Level.HARD
+    };
+
+    /** Bytes before the first record. */
+    private static final int HEADER_SIZE = 8 + 4 * LEVELS.length;
+
+    /** Bytes per record. */
+    private static final int RECORD_SIZE = 16;
+
+    /** Scale of the stored scores. */
+    private static final int SCORE_SCALE = 0xFFFF;
+
+    /** The mapped file. Only absolute gets are used, so threads can share it. */
+    private final ByteBuffer buffer;
+
+    /** Index of the first record of each level, and the total count at the end. */
+    private final int[] starts = new int[LEVELS.length + 1];
+
+    private DealIndex(ByteBuffer buffer, Path file) throws IOException {
+        this.buffer = buffer;
+        if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC
+          || buffer.getInt(4) != VERSION) {
+            throw new IOException("Not a deal index: " + file);
+        }
+        for (int i = 0; i < LEVELS.length; i++) {
+            starts[i + 1] = starts[i] + buffer.getInt(8 + 4 * i);
+        }
+        if (buffer.capacity() != HEADER_SIZE + (long) RECORD_SIZE * starts[LEVELS.length]) {
+            throw new IOException("Deal index has the wrong length: " + file);
+        }
+    }
+
+    /** Maps the index in file. */
+    public static DealIndex open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            // The mapping stays valid after the channel is closed
+            return new DealIndex(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), file);
+        }
+    }
+
+    /** Returns the number of deals in the index. */
+    public int size() {
+        return starts[LEVELS.length];
+    }
+
+    /** Returns the number of deals of the given level in the index. */
+    public int size(DifficultyRater.Level level) {
+        int l = levelIndex(level);
+        return l < 0 ? 0 : starts[l + 1] - starts[l];
+    }
+
+    /** Returns the number of the deal in record i. */
+    public long getDeal(int i) {
+        return buffer.getLong(offset(i));
+    }
+
+    /** Returns the number of positions the solver expanded for record i. */
+    public int getNodes(int i) {
+        return buffer.getInt(offset(i) + 8);
+    }
+
+    /** Returns the number of moves in the first win the solver found for record i. */
+    public int getMoveCount(int i) {
+        return Short.toUnsignedInt(buffer.getShort(offset(i) + 12));
+    }
+
+    /** Returns the difficulty score of record i, from 0 to 1. */
+    public double getScore(int i) {
+        return (double) Short.toUnsignedInt(buffer.getShort(offset(i) + 14)) / SCORE_SCALE;
+    }
+
+    /** Returns the level of record i. */
+    public DifficultyRater.Level getLevel(int i) {
+        offset(i);
+        int l = 0;
+        while (i >= starts[l + 1]) {
+            l++;
+        }
+        return LEVELS[l];
+    }
+
+    /** Returns the number of a deal picked at random from the index. */
+    public long randomDeal() {
+        if (size() == 0) {
+            throw new IllegalStateException("The deal index is empty");
+        }
+        return getDeal(ThreadLocalRandom.current().nextInt(size()));
+    }
+
+    /** Returns the number of a deal of the given level picked at random. */
+    public long randomDeal(DifficultyRater.Level level) {
+        int n = size(level);
+        if (n == 0) {
+            throw new IllegalStateException("The deal index has no " + level + " deals");
+        }
+        return getDeal(starts[levelIndex(level)] + ThreadLocalRandom.current().nextInt(n));
+    }
+
+    /** Returns a new game of a deal of the given level picked at random. */
+    public KlondikeModel newGame(DifficultyRater.Level level) {
+        return new KlondikeModel(randomDeal(level));
+    }
+
+    /** Returns the byte offset of record i. */
+    private int offset(int i) {
+        if (i < 0 || i >= size()) {
+            throw new IndexOutOfBoundsException("Record " + i + " of " + size());
+        }
+        return HEADER_SIZE + RECORD_SIZE * i;
+    }
+
+    /** Returns the position of level in LEVELS, or -1. */
+    private static int levelIndex(DifficultyRater.Level level) {
+        for (int l = 0; l < LEVELS.length; l++) {
+            if (LEVELS[l] == level) {
+                return l;
+            }
+        }
+        return -1;
+    }
+
+    /** Writes an index of the solved deals among ratings to file. */
+    public static void write(Path file, DifficultyRater.Rating[] ratings) throws IOException {
+        List<List<DifficultyRater.Rating>> byLevel = new ArrayList<>();
+        for (int l = 0; l < LEVELS.length; l++) {
+            byLevel.add(new ArrayList<>());
+        }
+        for (DifficultyRater.Rating r : ratings) {
+            int l = levelIndex(r.getLevel());
+            if (l >= 0) {
+                byLevel.get(l).add(r);
+            }
+        }
+        try (DataOutputStream out = new DataOutputStream(
+          new BufferedOutputStream(Files.newOutputStream(file)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            for (List<DifficultyRater.Rating> level : byLevel) {
+                out.writeInt(level.size());
+            }
+            for (List<DifficultyRater.Rating> level : byLevel) {
+                for (DifficultyRater.Rating r : level) {
+                    out.writeLong(r.getDeal());
+                    out.writeInt(r.getNodes());
+                    out.writeShort(Math.min(r.getFirstSolutionLength(), 0xFFFF));
+                    out.writeShort((int) Math.round(r.getScore() * SCORE_SCALE));
+                }
+            }
+        }
+    }
+
+    /**
+     * Builds an index: rates a range of deals on every processor and writes
+     * the ones the solver won. Arguments, all optional: the number of deals
+     * to rate (default 10000), the first deal (default 1) and the file
+     * (default DEFAULT_FILE).
+     */
+    public static void main(String[] args) throws IOException {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 10_000;
+        long firstDeal = args.length > 1 ? Long.parseLong(args[1]) : 1;
+        Path file = Paths.get(args.length > 2 ? args[2] : DEFAULT_FILE);
+        long start = System.nanoTime();
+        write(file, new DifficultyRater().rate(firstDeal, count));
+        double seconds = (System.nanoTime() - start) / 1e9;
+        DealIndex index = open(file);
+        System.out.printf("%d of %d deals winnable (%d easy, %d medium, %d hard) in %.1f s, written to %s%n",
+          index.size(), count, index.size(DifficultyRater.Level.EASY),
+          index.size(DifficultyRater.Level.MEDIUM), index.size(DifficultyRater.Level.HARD),
+          seconds, file);
+    }
+}
@@ -11,6 +11,8 @@
  */
 
 import java.security.SecureRandom;
+import java.util.Random;
+import java.util.function.IntUnaryOperator;
 
 public class Deck {
 
@@ -26,10 +28,43 @@ public class Deck {
     private final int DECK = 52;
 
     /**
-     * The number of cards in the deck.
+     * Source of randomness for unnumbered shuffles. Seeding a SecureRandom is
+     * slow, so one instance is shared by every deck.
+     */
+    private static final SecureRandom SECURE_RANDOM = new SecureRandom();
+
+    /**
+     * The number of cards in the deck. Cards occupy indices 0 through
+     * deckSize - 1 of the cards array; every other slot is null.
      */
     private int deckSize;
 
+    /**
+     * The number of cards, counted from the bottom of the deck, that are face
+     * down. Face-down cards are always below the face-up ones.
+     */
+    private int faceDownCount;
+
+    /**
+     * Zobrist keys for this deck, indexed by card ordinal for face-down cards
+     * and by 52 + ordinal for face-up ones, or null if the deck is not part
+     * of a game and need not be hashed.
+     */
+    private long[] hashKeys;
+
+    /**
+     * XOR of the keys of every card in the deck, kept up to date as cards
+     * are added, removed and turned over.
+     */
+    private long hash;
+
+    /**
+     * True if cards may be shared with a copy of this deck, in which case it
+     * must be copied before this deck changes it. Shared arrays are never
+     * written, so copies can be read by other threads.
+     */
+    private boolean shared;
+
     /**
      * Creates a new deck object with a Card Array size 52.
      */
@@ -38,36 +73,99 @@ public class Deck {
     }
 
     /**
-     * Fills cards array with the standard deck of cards.
+     * Creates a deck holding the same cards, face up or down, as other. The
+     * two decks share one array of cards until either changes, so copying
+     * takes constant time. Only the thread that changes other may copy it;
+     * the copy can then be handed to any thread.
+     *
+     * @param other the deck to copy.
+     */
+    public Deck(Deck other) {
+        cards = other.cards;
+        shared = true;
+        other.shared = true;
+        deckSize = other.deckSize;
+        faceDownCount = other.faceDownCount;
+        hashKeys = other.hashKeys;
+        hash = other.hash;
+    }
+
+    /**
+     * Takes a private copy of cards if it may be shared with another deck.
+     */
+    private void own() {
+        if (shared) {
+            cards = cards.clone();
+            shared = false;
+        }
+    }
+
+    /**
+     * Fills cards array with the standard deck of cards, all face up.
      */
     public void fill() {
+        own();
         int i = 0;
 
         for (Suit s : Suit.values()) {
             for (Rank r : Rank.values()) {
-                cards[i] = new Card(r, s);
+                cards[i] = Card.of(r, s);
                 i++;
             }
         }
+        deckSize = i;
+        faceDownCount = 0;
+        rehash();
     }
 
     /**
-     * Counts the number of non-null elements in cards.
+     * Starts maintaining a Zobrist hash of this deck's cards using keys.
      *
-     * @return the total number of cards in the cards array.
+     * @param keys 104 random values: one per card face down, then one per
+     *             card face up.
      */
-    public int size() {
-        int totalCards = 0;
+    void setHashKeys(long[] keys) {
+        hashKeys = keys;
+        rehash();
+    }
 
-        for (int i = 0; i < cards.length; i++) {
-            if (cards[i] != null) {
-                totalCards++;
-            } else {
-                break;
+    /**
+     * Returns the Zobrist hash of the cards in this deck and whether each is
+     * face up, or 0 if the deck has no hash keys. The order of the cards does
+     * not affect the hash.
+     *
+     * @return the XOR of the keys of the cards in the deck.
+     */
+    public long getHash() {
+        return hash;
+    }
+
+    /**
+     * Recomputes hash from scratch.
+     */
+    private void rehash() {
+        hash = 0;
+        if (hashKeys != null) {
+            for (int i = 0; i < deckSize; i++) {
+                hash ^= key(i);
             }
         }
-        deckSize = totalCards;
+    }
 
+    /**
+     * Returns the key of the card at index n in its current face state.
+     */
+    private long key(int n) {
+        int faceUp = n >= faceDownCount ? Card.COUNT : 0;
+        return hashKeys[faceUp + cards[n].ordinal()];
+    }
+
+    /**
+     * Returns the number of cards in this deck.
+     *
+     * @return the total number of cards in the cards array.
+     */
+    public int size() {
         return deckSize;
     }
 
@@ -82,21 +180,20 @@ public class Deck {
     }
 
     /**
-     * Adds the Card passed in to the top of a new deck.
+     * Adds the Card passed in to the top of this deck. Has no effect if the
+     * deck is already full.
      *
      * @param card Card object to be added to a deck.
      */
     public void add(Card card) {
-        Card[] newDeck = new Card[DECK];
-
-        System.arraycopy(cards, 0, newDeck, 0, cards.length);
-        for (int i = 0; i < newDeck.length; i++) {
-            if (newDeck[i] == null) {
-                newDeck[i] = card;
-                break;
+        if (deckSize < cards.length) {
+            own();
+            cards[deckSize] = card;
+            deckSize++;
+            if (hashKeys != null) {
+                hash ^= key(deckSize - 1);
             }
         }
-        cards = newDeck;
     }
 
     /**
@@ -109,31 +206,151 @@ public class Deck {
         return cards[n];
     }
 
+    /**
+     * Replaces the card at index n with card, which keeps the face of the
+     * card it replaces. Used to fill in guesses for cards a player cannot
+     * see.
+     */
+    void setCardAt(int n, Card card) {
+        own();
+        if (hashKeys != null) {
+            hash ^= key(n);
+        }
+        cards[n] = card;
+        if (hashKeys != null) {
+            hash ^= key(n);
+        }
+    }
+
+    /**
+     * Indicates whether or not the card at the indicated index is face up.
+     *
+     * @param n index of the card.
+     * @return true if the card at index n is face up.
+     */
+    public boolean isFaceUp(int n) {
+        return n >= faceDownCount;
+    }
+
+    /**
+     * Returns the number of face-down cards at the bottom of the deck.
+     *
+     * @return the index of the lowest face-up card.
+     */
+    public int getFaceDownCount() {
+        return faceDownCount;
+    }
+
+    /**
+     * Turns the top card face up if it is face down.
+     *
+     * @return true if a card was turned over.
+     */
+    public boolean turnTopCardFaceUp() {
+        if (deckSize > 0 && faceDownCount == deckSize) {
+            if (hashKeys != null) {
+                hash ^= key(deckSize - 1);
+                faceDownCount = deckSize - 1;
+                hash ^= key(deckSize - 1);
+            } else {
+                faceDownCount = deckSize - 1;
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Turns every card in the deck face down.
+     */
+    public void turnFaceDown() {
+        if (hashKeys != null) {
+            for (int i = faceDownCount; i < deckSize; i++) {
+                hash ^= key(i) ^ hashKeys[cards[i].ordinal()];
+            }
+        }
+        faceDownCount = deckSize;
+    }
+
+    /**
+     * Turns every card in the deck face up.
+     */
+    public void turnFaceUp() {
+        if (hashKeys != null) {
+            for (int i = 0; i < faceDownCount; i++) {
+                hash ^= key(i) ^ hashKeys[Card.COUNT + cards[i].ordinal()];
+            }
+        }
+        faceDownCount = 0;
+    }
+
+    /**
+     * Turns this whole deck over onto other, which must be empty, the way
+     * the draw pile is turned back over to make a new deck: the top card
+     * ends up at the bottom and every card changes face. The two decks
+     * trade arrays and the cards are reversed in place, so no card is moved
+     * on its own and nothing is allocated unless the array was shared.
+     *
+     * @param other the empty Deck that receives the cards.
+     */
+    public void turnOver(Deck other) {
+        Card[] turned = cards;
+        boolean turnedShared = shared;
+        cards = other.cards;
+        shared = other.shared;
+        other.cards = turned;
+        other.shared = turnedShared;
+        other.own();
+        int n = deckSize;
+        for (int i = 0, j = n - 1; i < j; i++, j--) {
+            Card c = other.cards[i];
+            other.cards[i] = other.cards[j];
+            other.cards[j] = c;
+        }
+        other.deckSize = n;
+        other.faceDownCount = n - faceDownCount;
+        other.rehash();
+        deckSize = 0;
+        faceDownCount = 0;
+        hash = 0;
+    }
+
     /**
      * Takes the top card from this deck and moves it to the other deck.
      *
      * @param other Deck object that will receive the top card of this Deck.
      */
     public void moveTo(Deck other) {
-        Card move = getTopCard();
-        other.add(move);
-        remove(1);
+        moveTo(other, 1);
     }
 
     /**
      * Moves a specified number of cards, in order, from this to Deck to another
-     * deck.
+     * deck. The cards are copied in a single block, so no arrays are
+     * allocated. Moved cards that were face down stay face down if every card
+     * already in the other deck is face down; otherwise they land face up.
+     * If this deck holds fewer than n cards, all of them are moved. As with
+     * add, cards that do not fit in the other deck are dropped: they leave
+     * this deck but are not added to the other.
      *
      * @param other Deck that will receive the cards.
      * @param n     Number of cards to pass over to the cards.
      */
     public void moveTo(Deck other, int n) {
-        int size = size();
-        int start = size - n;
+        n = Math.min(n, deckSize);
+        int start = deckSize - n;
+        int fit = Math.min(n, other.cards.length - other.deckSize);
 
-        for (int i = start; i < size; i++) {
-            Card newCard = getCardAt(i);
-            other.add(newCard);
+        other.own();
+        System.arraycopy(cards, start, other.cards, other.deckSize, fit);
+        if (other.faceDownCount == other.deckSize && faceDownCount > start) {
+            other.faceDownCount += Math.min(faceDownCount - start, fit);
+        }
+        other.deckSize += fit;
+        if (other.hashKeys != null) {
+            for (int i = other.deckSize - fit; i < other.deckSize; i++) {
+                other.hash ^= other.key(i);
+            }
         }
         remove(n);
     }
@@ -145,44 +362,75 @@ public class Deck {
      * @param n number of cards to remove from the deck.
      */
     public void remove(int n) {
-        int noCards = size() - n;
-        Card[] newDeck = new Card[DECK];
-        for (int i = 0; i < noCards; i++) {
-            newDeck[i] = cards[i];
+        int noCards = deckSize - n;
+        own();
+        for (int i = noCards; i < deckSize; i++) {
+            if (hashKeys != null) {
+                hash ^= key(i);
+            }
+            cards[i] = null;
+        }
+        deckSize = noCards;
+        if (faceDownCount > noCards) {
+            faceDownCount = noCards;
         }
-        cards = newDeck;
     }
 
     /**
      * Gets the card that is on top of the deck.
      *
      * @return the Card object at the top of the deck (i.e. at the largest
-     * index).
+     * index), or null if the deck is empty.
      */
     public Card getTopCard() {
-        int n = 0;
-        for (int i = 0; i < cards.length; i++) {
-            if (cards[i] != null) {
-                n = i;
-            } else {
-                break;
-            }
+        if (deckSize == 0) {
+            return null;
         }
-        return getCardAt(n);
+        return cards[deckSize - 1];
     }
 
     /**
      * Shuffles the deck using Fisher-Yates and the SecureRandom java util.
      */
     public void shuffle() {
+        shuffle(SECURE_RANDOM);
+    }
+
+    /**
+     * Shuffles the deck using Fisher-Yates and the given source of
+     * randomness.
+     *
+     * @param rand the random number generator to draw swaps from.
+     */
+    public void shuffle(Random rand) {
+        fisherYates(rand::nextInt);
+    }
+
+    /**
+     * Shuffles the deck using Fisher-Yates and a seeded SplitMix64 generator.
+     * The same seed always produces the same order.
+     *
+     * @param rand the random number generator to draw swaps from.
+     */
+    public void shuffle(SplitMix64 rand) {
+        fisherYates(rand::nextInt);
+    }
+
+    /**
+     * Shuffles the deck using Fisher-Yates.
+     *
+     * @param nextInt returns a random index below its argument.
+     */
+    private void fisherYates(IntUnaryOperator nextInt) {
         int length = size();
-        SecureRandom rand = new SecureRandom();
 
+        own();
         for (int i = 0; i < length; i++) {
-            int randomIndexToSwap = rand.nextInt(i + 1);
+            int randomIndexToSwap = nextInt.applyAsInt(i + 1);
             Card temp = cards[randomIndexToSwap];
             cards[randomIndexToSwap] = cards[i];
             cards[i] = temp;
         }
+        rehash();
     }
 }
@@ -0,0 +1,302 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Rates how hard numbered deals are. Three measures are combined: the share
+ * of random games (RandomStrategy, played as by Simulator) that win, the
+ * number of positions the Solver expands before it finds a win, and the
+ * length of that first win. The solver does not look for the shortest win,
+ * so the length measures the line of play the search happened on first.
+ * Deals the solver cannot win within its node limit are rated unsolved.
+ * <p>
+ * Ranges of deals are rated in parallel on a ForkJoinPool, and ratings can be
+ * written to and read back from a compact binary file of fixed-size records.
+ */
+public class DifficultyRater {
+
+    /** Default number of random games played per deal. */
+    public static final int DEFAULT_SAMPLES = 32;
+
+    /** Default limit on the positions the solver expands per deal. */
+    public static final long DEFAULT_MAX_NODES = 50_000;
+
+    /** Number of deals a task rates itself rather than splitting further. */
+    private static final int BATCH = 8;
+
+    /** Written at the start of a ratings file: "KRAT". */
+    private static final int MAGIC = 0x4B524154;
+
+    /** Version of the ratings file format. */
+    private static final int VERSION = 1;
+
+    /** Solutions this long or longer count as fully hard. */
+    private static final int LONG_SOLUTION = 400;
+
+    /** How hard a deal is, as offered to players. */
+    public enum Level {
+        EASY, MEDIUM, HARD,
+        /** The solver did not find a win; the deal may be unwinnable. */
+        UNSOLVED
+    }
+
+    /** Pool the deals are rated in. */
+    private final ForkJoinPool pool;
+
+    /** Random games played per deal. */
+    private final int samples;
+
+    /** Limit on the positions the solver expands per deal. */
+    private final long maxNodes;
+
+    /**
+     * A solver for each thread that rates deals, so that its transposition
+     * table, up to TranspositionTable.DEFAULT_BYTES of direct memory, is
+     * allocated once per thread and reused for every deal.
+     */
+    private final ThreadLocal<Solver> solvers;
+
+    /**
+     * Creates a rater that works in the common pool with DEFAULT_SAMPLES
+     * random games and DEFAULT_MAX_NODES solver positions per deal.
+     */
+    public DifficultyRater() {
+        this(ForkJoinPool.commonPool(), DEFAULT_SAMPLES, DEFAULT_MAX_NODES);
+    }
+
+    /**
+     * Creates a rater that works in pool with the given number of random
+     * games and solver positions per deal.
+     *
+     * @throws IllegalArgumentException if samples is not from 1 to 255
+     */
+    public DifficultyRater(ForkJoinPool pool, int samples, long maxNodes) {
+        if (samples < 1 || samples > 255) {
+            throw new IllegalArgumentException("Samples must be from 1 to 255: " + samples);
+        }
+        this.pool = pool;
+        this.samples = samples;
+        this.maxNodes = maxNodes;
+        solvers = ThreadLocal.withInitial(() -> new Solver(maxNodes));
+    }
+
+    /** Rates the deal numbered deal in the caller's thread. */
+    public Rating rate(long deal) {
+        return rate(deal, solvers.get());
+    }
+
+    /** Rates the deals numbered firstDeal to firstDeal + count - 1 in the pool. */
+    public Rating[] rate(long firstDeal, int count) {
+        Rating[] ratings = new Rating[count];
+        pool.invoke(new Batch(firstDeal, ratings, 0, count));
+        return ratings;
+    }
+
+    /** Rates deal with solver. */
+    private Rating rate(long deal, Solver solver) {
+        Solver.Outcome outcome = solver.solve(new KlondikeModel(deal));
+        int length = solver.getSolution().length;
+        // Seeded by the deal, so a rating does not depend on the thread
+        RandomStrategy strategy = new RandomStrategy(SplitMix64.mix64(deal));
+        int wins = 0;
+        for (int i = 0; i < samples; i++) {
+            KlondikeModel model = new KlondikeModel(deal);
+            Simulator.play(model, strategy, Simulator.DEFAULT_MAX_IDLE_MOVES);
+            if (model.isWon()) {
+                wins++;
+            }
+        }
+        return new Rating(deal, outcome == Solver.Outcome.WON,
+          (int) Math.min(Integer.MAX_VALUE, solver.getNodes()), length, wins, samples, maxNodes);
+    }
+
+    /** Task that rates a range of deals, splitting it while it is large. */
+    private class Batch extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final long firstDeal;
+        private final Rating[] ratings;
+        private final int from;
+        private final int to;
+
+        Batch(long firstDeal, Rating[] ratings, int from, int to) {
+            this.firstDeal = firstDeal;
+            this.ratings = ratings;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > BATCH) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new Batch(firstDeal, ratings, from, middle),
+                  new Batch(firstDeal, ratings, middle, to));
+                return;
+            }
+            Solver solver = solvers.get();
+            for (int i = from; i < to; i++) {
+                ratings[i] = rate(firstDeal + i, solver);
+            }
+        }
+    }
+
+    /** What the rater found out about one deal. */
+    public static class Rating {
+
+        private final long deal;
+        private final boolean solved;
+        private final int nodes;
+        private final int firstSolutionLength;
+        private final int wins;
+        private final int samples;
+        private final long maxNodes;
+
+        Rating(long deal, boolean solved, int nodes, int firstSolutionLength, int wins, int samples,
+          long maxNodes) {
+            this.deal = deal;
+            this.solved = solved;
+            this.nodes = nodes;
+            this.firstSolutionLength = firstSolutionLength;
+            this.wins = wins;
+            this.samples = samples;
+            this.maxNodes = maxNodes;
+        }
+
+        /** Returns the number of the deal rated. */
+        public long getDeal() {
+            return deal;
+        }
+
+        /** Returns true if the solver found a win. */
+        public boolean isSolved() {
+            return solved;
+        }
+
+        /** Returns the number of positions the solver expanded. */
+        public int getNodes() {
+            return nodes;
+        }
+
+        /**
+         * Returns the length of the first solution found: the number of moves
+         * in the first win the solver came across, or 0 if it found none.
+         * Shorter wins may exist.
+         */
+        public int getFirstSolutionLength() {
+            return firstSolutionLength;
+        }
+
+        /** Returns the share of random games that won. */
+        public double getPlayoutWinRate() {
+            return (double) wins / samples;
+        }
+
+        /**
+         * Returns how hard the deal is, from 0 (easiest) to 1, or 1 if it is
+         * unsolved. Random games that lose count for half, solver positions
+         * (on a log scale up to the solver's limit) for 3/10 and solution
+         * length for 1/5.
+         */
+        public double getScore() {
+            if (!solved) {
+                return 1;
+            }
+            double search = Math.log1p(nodes) / Math.log1p(maxNodes);
+            double length = Math.min(1, (double) firstSolutionLength / LONG_SOLUTION);
+            return 0.5 * (1 - getPlayoutWinRate()) + 0.3 * Math.min(1, search) + 0.2 * length;
+        }
+
+        /** Returns the level the score falls in. */
+        public Level getLevel() {
+            if (!solved) {
+                return Level.UNSOLVED;
+            }
+            double score = getScore();
+            return score < 0.5 ? Level.EASY : score < 0.65 ? Level.MEDIUM : Level.HARD;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("deal %d: %s (%.2f), %d nodes, %d moves, %.0f%% random wins",
+              deal, getLevel(), getScore(), nodes, firstSolutionLength, 100 * getPlayoutWinRate());
+        }
+    }
+
+    /**
+     * Writes ratings to file: a header of magic number, version, samples per
+     * deal, solver node limit and count, then a 16-byte record per deal of
+     * deal number, nodes (negated if unsolved), first solution length and wins.
+     */
+    public static void write(Path file, Rating[] ratings) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(
+          new BufferedOutputStream(Files.newOutputStream(file)))) {
+            out.writeInt(MAGIC);
+            out.writeShort(VERSION);
+            out.writeByte(ratings.length == 0 ? 0 : ratings[0].samples);
+            out.writeLong(ratings.length == 0 ? 0 : ratings[0].maxNodes);
+            out.writeInt(ratings.length);
+            for (Rating r : ratings) {
+                out.writeLong(r.deal);
+                out.writeInt(r.solved ? r.nodes : -r.nodes - 1);
+                out.writeShort(r.firstSolutionLength);
+                out.writeShort(r.wins);
+            }
+        }
+    }
+
+    /** Reads ratings written by write. */
+    public static Rating[] read(Path file) throws IOException {
+        try (DataInputStream in = new DataInputStream(
+          new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readShort() != VERSION) {
+                throw new IOException("Not a ratings file: " + file);
+            }
+            int samples = in.readUnsignedByte();
+            long maxNodes = in.readLong();
+            Rating[] ratings = new Rating[in.readInt()];
+            for (int i = 0; i < ratings.length; i++) {
+                long deal = in.readLong();
+                int nodes = in.readInt();
+                int length = in.readUnsignedShort();
+                int wins = in.readUnsignedShort();
+                ratings[i] = new Rating(deal, nodes >= 0, nodes >= 0 ? nodes : -nodes - 1,
+                  length, wins, samples, maxNodes);
+            }
+            return ratings;
+        }
+    }
+
+    /**
+     * Rates a range of deals on every processor, writes the ratings to a
+     * file and prints how many fell in each level. Arguments, all optional:
+     * the first deal (default 1), the number of deals (default 1000) and the
+     * file (default ratings.bin).
+     */
+    public static void main(String[] args) throws IOException {
+        long firstDeal = args.length > 0 ? Long.parseLong(args[0]) : 1;
+        int count = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+        Path file = Paths.get(args.length > 2 ? args[2] : "ratings.bin");
+        long start = System.nanoTime();
+        Rating[] ratings = new DifficultyRater().rate(firstDeal, count);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        write(file, ratings);
+        int[] levels = new int[Level.values().length];
+        for (Rating r : ratings) {
+            levels[r.getLevel().ordinal()]++;
+        }
+        for (Level level : Level.values()) {
+            System.out.printf("%-9s %d%n", level, levels[level.ordinal()]);
+        }
+        System.out.printf("%d deals in %.1f s, %.0f deals/min, written to %s%n",
+          count, seconds, count * 60 / seconds, file);
+    }
+}
@@ -0,0 +1,201 @@
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+/**
+ * Writes games to a compact binary archive, for GameReplayer to play back.
+ * A game is stored as its deal number and rules, from which the deal can be
+ * made again, and the line of play that led from the deal to the position
+ * it is in. Each move is stored as its index among the legal moves listed
+ * by KlondikeModel#generateMoves, in as few bits as that many moves need:
+ * none when the move is forced, usually three or four. A game of a few
+ * hundred moves takes about a hundred bytes.
+ * <p>
+ * The archive starts with a header of magic number and version. Each game
+ * follows as its deal number, its draw count as a byte, its pass limit, its
+ * number of moves, its number of bytes of moves, and the moves, packed
+ * starting from the low bit of each byte. Games can be appended for as long
+ * as the recorder is open. A recorder is not thread-safe.
+ * <p>
+ * Since moves are stored by index, the order in which generateMoves lists
+ * them is part of the format: any change to that order, or to which moves
+ * it lists, must bump VERSION, or old archives will replay wrongly.
+ */
+public class GameRecorder implements Closeable {
+
+    /** Written at the start of an archive: "KREC". */
+    static final int MAGIC = 0x4B524543;
+
+    /** Version of the archive format. */
+    static final int VERSION = 1;
+
+    /** Bytes of a game's fixed-size part, before its moves. */
+    static final int GAME_HEADER_SIZE = 8 + 1 + 4 + 4 + 4;
+
+    /** Where the archive is written. */
+    private final DataOutputStream out;
+
+    /** Legal moves of the position being recorded. */
+    private final MoveBuffer moves = new MoveBuffer();
+
+    /** Moves of the game being recorded, packed; grown as needed. */
+    private byte[] packed = new byte[256];
+
+    /** Number of bytes of packed filled so far. */
+    private int packedLength;
+
+    /** Bits not yet written to packed, lowest first. */
+    private long bits;
+
+    /** Number of bits held in bits. */
+    private int bitCount;
+
+    /** Number of games written. */
+    private long games;
+
+    /** Writes an archive header to out, which the recorder then owns. */
+    public GameRecorder(OutputStream out) throws IOException {
+        this.out = new DataOutputStream(out);
+        this.out.writeInt(MAGIC);
+        this.out.writeShort(VERSION);
+    }
+
+    /** Creates file, replacing any file already there, and writes an archive header to it. */
+    public static GameRecorder create(Path file) throws IOException {
+        return new GameRecorder(new BufferedOutputStream(Files.newOutputStream(file)));
+    }
+
+    /**
+     * Appends game to the archive: its deal and the moves that led from the
+     * deal to its current position. Undone moves are not recorded.
+     *
+     * @throws IllegalArgumentException if game has no deal number, or did
+     *     not start from its deal
+     */
+    public void record(KlondikeModel game) throws IOException {
+        if (!game.hasDealNumber()) {
+            throw new IllegalArgumentException("Only numbered deals can be recorded");
+        }
+        KlondikeModel replay = new KlondikeModel(game.getDealNumber(), game.getRules());
+        packedLength = 0;
+        bits = 0;
+        bitCount = 0;
+        for (int i = 0; i < game.getMoveCount(); i++) {
+            int move = Move.withoutFlags(game.getMove(i));
+            replay.generateMoves(moves);
+            int index = indexOf(moves, move);
+            if (index < 0) {
+                throw new IllegalArgumentException("Game did not start from its deal: move " + i
+                  + ", " + Move.toString(move) + ", is not legal there");
+            }
+            writeBits(index, bitsFor(moves.size()));
+            replay.apply(move);
+        }
+        if (!replay.equals(game)) {
+            throw new IllegalArgumentException("Game did not start from its deal");
+        }
+        if (bitCount > 0) {
+            writeBits(0, 8 - bitCount);
+        }
+        KlondikeRules rules = game.getRules();
+        out.writeLong(game.getDealNumber());
+        out.writeByte(rules.getDrawCount());
+        out.writeInt(rules.getMaxPasses());
+        out.writeInt(game.getMoveCount());
+        out.writeInt(packedLength);
+        out.write(packed, 0, packedLength);
+        games++;
+    }
+
+    /** Returns the position of move in moves, or -1. */
+    private static int indexOf(MoveBuffer moves, int move) {
+        for (int i = 0; i < moves.size(); i++) {
+            if (moves.get(i) == move) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /** Returns the number of bits that hold an index among n moves: 0 if n is 1. */
+    static int bitsFor(int n) {
+        return 32 - Integer.numberOfLeadingZeros(n - 1);
+    }
+
+    /** Adds the low count bits of value to packed. */
+    private void writeBits(int value, int count) {
+        bits |= (long) value << bitCount;
+        bitCount += count;
+        while (bitCount >= 8) {
+            if (packedLength == packed.length) {
+                packed = Arrays.copyOf(packed, 2 * packed.length);
+            }
+            packed[packedLength++] = (byte) bits;
+            bits >>>= 8;
+            bitCount -= 8;
+        }
+    }
+
+    /** Returns the number of games recorded. */
+    public long getGames() {
+        return games;
+    }
+
+    /** Writes out any buffered games. */
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    /** Writes out any buffered games and closes the stream. */
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+
+    /**
+     * Records games played by a strategy, then replays them all and checks
+     * that each ends where it was recorded. Arguments, all optional: the
+     * number of games (default 10000), the strategy, as for Strategy#of
+     * (default greedy), the rules, as for KlondikeRules#of(String) (default
+     * draw1), and the file (default games.rec).
+     */
+    public static void main(String[] args) throws IOException {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 10_000;
+        String name = args.length > 1 ? args[1] : "greedy";
+        KlondikeRules rules = args.length > 2 ? KlondikeRules.of(args[2]) : KlondikeRules.DRAW_ONE;
+        Path file = Paths.get(args.length > 3 ? args[3] : "games.rec");
+        Strategy strategy = Strategy.of(name, 1);
+        long[] hashes = new long[count];
+        long totalMoves = 0;
+        try (GameRecorder recorder = create(file)) {
+            for (int i = 0; i < count; i++) {
+                KlondikeModel game = new KlondikeModel(i + 1, rules);
+                Simulator.play(game, strategy, Simulator.DEFAULT_MAX_IDLE_MOVES);
+                recorder.record(game);
+                hashes[i] = game.getHash();
+                totalMoves += game.getMoveCount();
+            }
+        }
+        long bytes = Files.size(file);
+        System.out.printf("%d games, %d moves, %d bytes (%.1f bytes/game, %.2f bits/move)%n",
+          count, totalMoves, bytes, (double) bytes / count, 8.0 * bytes / totalMoves);
+
+        long start = System.nanoTime();
+        GameReplayer replayer = GameReplayer.open(file);
+        int mismatches = 0;
+        for (int i = 0; replayer.next(); i++) {
+            if (replayer.replay().getHash() != hashes[i]) {
+                mismatches++;
+            }
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("Replayed in %.2f s, %.0f moves/s, %d mismatches%n",
+          seconds, totalMoves / seconds, mismatches);
+    }
+}
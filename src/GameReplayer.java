@@ -0,0 +1,159 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Plays back the games in an archive written by GameRecorder. The archive
+ * is memory-mapped, and next() steps from one game to the next by reading
+ * its fixed-size header, so skipping a game costs nothing. replay(int)
+ * deals the current game and makes its first moves again, decoding each
+ * from its index among the legal moves; the moves are made with
+ * KlondikeModel#apply, so the position reached is exactly the one
+ * recorded, and can be stepped back through with undo.
+ * <p>
+ * A replayer is not thread-safe, but several replayers may read one file.
+ */
+public class GameReplayer {
+
+    /** The archive; only absolute gets are used. */
+    private final ByteBuffer buffer;
+
+    /** Offset of the next game's header. */
+    private int nextGame = 6;
+
+    /** Deal number of the current game. */
+    private long dealNumber;
+
+    /** Rules of the current game. */
+    private KlondikeRules rules;
+
+    /** Number of moves recorded for the current game. */
+    private int moveCount;
+
+    /** Offset of the current game's moves, or -1 before the first call to next(). */
+    private int movesStart = -1;
+
+    /** Offset just past the current game's moves. */
+    private int movesEnd;
+
+    /** Legal moves of the position being replayed. */
+    private final MoveBuffer moves = new MoveBuffer();
+
+    /**
+     * Reads the archive in buffer, from its position to its limit.
+     *
+     * @throws IOException if buffer does not hold an archive
+     */
+    public GameReplayer(ByteBuffer buffer) throws IOException {
+        this.buffer = buffer.slice();
+        if (this.buffer.limit() < nextGame || this.buffer.getInt(0) != GameRecorder.MAGIC
+          || this.buffer.getShort(4) != GameRecorder.VERSION) {
+            throw new IOException("Not a game archive");
+        }
+    }
+
+    /** Maps the archive in file. */
+    public static GameReplayer open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            // The mapping stays valid after the channel is closed
+            return new GameReplayer(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * Moves on to the next game of the archive, or the first on the first
+     * call. Returns false if there are no more games.
+     *
+     * @throws IOException if the archive ends in the middle of a game
+     */
+    public boolean next() throws IOException {
+        if (nextGame == buffer.limit()) {
+            return false;
+        }
+        if (buffer.limit() - nextGame < GameRecorder.GAME_HEADER_SIZE) {
+            throw new IOException("Game archive is truncated");
+        }
+        dealNumber = buffer.getLong(nextGame);
+        try {
+            rules = KlondikeRules.of(buffer.get(nextGame + 8), buffer.getInt(nextGame + 9));
+        } catch (IllegalArgumentException ex) {
+            throw new IOException("Corrupt game archive", ex);
+        }
+        moveCount = buffer.getInt(nextGame + 13);
+        int length = buffer.getInt(nextGame + 17);
+        movesStart = nextGame + GameRecorder.GAME_HEADER_SIZE;
+        if (moveCount < 0 || length < 0 || buffer.limit() - movesStart < length) {
+            throw new IOException("Game archive is truncated");
+        }
+        movesEnd = movesStart + length;
+        nextGame = movesEnd;
+        return true;
+    }
+
+    /** Returns the deal number of the current game. */
+    public long getDealNumber() {
+        return dealNumber;
+    }
+
+    /** Returns the rules of the current game. */
+    public KlondikeRules getRules() {
+        return rules;
+    }
+
+    /** Returns the number of moves recorded for the current game. */
+    public int getMoveCount() {
+        return moveCount;
+    }
+
+    /** Returns the current game in the position it was recorded in. */
+    public KlondikeModel replay() throws IOException {
+        return replay(moveCount);
+    }
+
+    /**
+     * Returns the current game after its first n moves, which can be undone.
+     *
+     * @throws IllegalStateException if next() has not found a game
+     * @throws IndexOutOfBoundsException if n is negative or more than
+     *     getMoveCount()
+     * @throws IOException if a recorded move is not legal where it is made,
+     *     or the game's moves run out early
+     */
+    public KlondikeModel replay(int n) throws IOException {
+        if (movesStart < 0) {
+            throw new IllegalStateException("No game; call next() first");
+        }
+        if (n < 0 || n > moveCount) {
+            throw new IndexOutOfBoundsException("Move " + n + " of " + moveCount);
+        }
+        KlondikeModel game = new KlondikeModel(dealNumber, rules);
+        int offset = movesStart;
+        long bits = 0;
+        int bitCount = 0;
+        for (int i = 0; i < n; i++) {
+            game.generateMoves(moves);
+            if (moves.size() == 0) {
+                throw new IOException("Corrupt game archive: deal " + dealNumber + ", move " + i);
+            }
+            int width = GameRecorder.bitsFor(moves.size());
+            while (bitCount < width) {
+                if (offset == movesEnd) {
+                    throw new IOException("Corrupt game archive: deal " + dealNumber
+                      + " ends at move " + i + " of " + moveCount);
+                }
+                bits |= (buffer.get(offset++) & 0xFFL) << bitCount;
+                bitCount += 8;
+            }
+            int index = (int) bits & ((1 << width) - 1);
+            bits >>>= width;
+            bitCount -= width;
+            if (index >= moves.size()) {
+                throw new IOException("Corrupt game archive: deal " + dealNumber + ", move " + i);
+            }
+            game.apply(moves.get(index));
+        }
+        return game;
+    }
+}
@@ -0,0 +1,29 @@
+/**
+ * Strategy that plays the move the solver would try first: foundation moves
+ * before anything else, then moves that turn up a card or empty a column,
+ * then moves from the draw pile, and otherwise draws. Tableau moves that
+ * merely shift cards from one column to another are never played, so the
+ * strategy cannot go back and forth between two positions; once it has
+ * nothing else to do it keeps cycling through the deck.
+ */
+public class GreedyStrategy implements Strategy {
+
+    /** Moves of the position being decided. */
+    private final MoveBuffer moves = new MoveBuffer();
+
+    @Override
+    public int chooseMove(KlondikeModel model) {
+        model.generateMoves(moves);
+        int best = NO_MOVE;
+        int bestScore = Integer.MIN_VALUE;
+        for (int i = 0; i < moves.size(); i++) {
+            int move = moves.get(i);
+            int score = Solver.score(model, move);
+            if (score > bestScore && (score > Solver.SHIFT_SCORE || Move.isDraw(move))) {
+                best = move;
+                bestScore = score;
+            }
+        }
+        return best;
+    }
+}
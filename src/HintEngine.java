@@ -0,0 +1,83 @@
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.IntConsumer;
+
+/**
+ * Finds hints in the background, so that the thread asking (usually the
+ * Swing event dispatch thread) never waits for a search. Each request copies
+ * the position and searches the copy on the engine's own thread with an
+ * MctsStrategy, which does not look at face-down cards, for up to a deadline.
+ * A new request, or cancel(), abandons the one before it: its search is
+ * interrupted and its result never delivered.
+ */
+public class HintEngine {
+
+    /** Default time a search may take, in milliseconds. */
+    public static final long DEFAULT_DEADLINE_MILLIS = 100;
+
+    /** Runs the searches, one at a time. */
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "hint-engine");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /** Finds the moves; used only on the executor's thread. */
+    private final MctsStrategy strategy;
+
+    /** Search of the latest request, or null. */
+    private Future<?> pending;
+
+    /** Number of the latest request; results of earlier ones are dropped. */
+    private long generation;
+
+    /** Creates an engine that searches for up to DEFAULT_DEADLINE_MILLIS. */
+    public HintEngine() {
+        this(DEFAULT_DEADLINE_MILLIS);
+    }
+
+    /** Creates an engine that searches for up to deadlineMillis milliseconds. */
+    public HintEngine(long deadlineMillis) {
+        strategy = new MctsStrategy(0, deadlineMillis, System.nanoTime());
+    }
+
+    /**
+     * Starts looking for a move from model's position, abandoning any earlier
+     * request. The position is copied before this returns, so the model may
+     * change straight away. Unless the request is abandoned first, callback
+     * is given the move on the engine's thread when the deadline passes, or
+     * Strategy.NO_MOVE if there is none.
+     */
+    public synchronized void request(KlondikeModel model, IntConsumer callback) {
+        cancel();
+        KlondikeModel snapshot = model.snapshot();
+        long request = generation;
+        pending = executor.submit(() -> {
+            int move = strategy.chooseMove(snapshot);
+            if (isCurrent(request)) {
+                callback.accept(move);
+            }
+        });
+    }
+
+    /** Abandons the latest request, if it is still running. */
+    public synchronized void cancel() {
+        generation++;
+        if (pending != null) {
+            pending.cancel(true);
+            pending = null;
+        }
+    }
+
+    /** Returns true if request is the latest and has not been cancelled. */
+    private synchronized boolean isCurrent(long request) {
+        return request == generation;
+    }
+
+    /** Abandons any request and stops the engine's thread. */
+    public void shutdown() {
+        cancel();
+        executor.shutdownNow();
+    }
+}
@@ -2,9 +2,7 @@ import java.awt.*;
 import java.awt.event.*;
 import java.awt.image.*;
 import java.io.*;
-import javax.imageio.*;
 import javax.swing.*;
-import java.util.*;
 
 /** Graphic user interface for the Klondike solitaire game. */
 public class Klondike {
@@ -18,11 +16,19 @@ public class Klondike {
     public static final int CARD_HEIGHT = 96;
     public static final int SPLAY_OFFSET = 25;
 
-    public static void main(String[] args) {
+    /** Space around a pile for the selection highlight and the hint outline. */
+    public static final int HIGHLIGHT_MARGIN = 5;
+
+    /** Milliseconds between moves while the computer plays. */
+    public static final int AUTO_PLAY_DELAY = 150;
+
+    public static void main(String[] args) throws IOException {
+        // Read the card images before the window opens, off the event dispatch thread
+        CardAtlas cards = CardAtlas.load(CARD_WIDTH, CARD_HEIGHT);
         SwingUtilities.invokeLater(new Runnable() {
             @Override
             public void run() {
-                Klondike game = new Klondike();
+                Klondike game = new Klondike(cards);
             }
         });
     }
@@ -36,15 +42,61 @@ public class Klondike {
         private boolean waitingForSource;
         private Deck source = null;
 
-        /** Cache of loaded card images. */
-        private Map<String, BufferedImage> images = new HashMap<>();
+        /** Strategy that plays while auto-play is on. */
+        private final Strategy player = new LookaheadStrategy(2);
+
+        /** Plays a move every AUTO_PLAY_DELAY milliseconds while running. */
+        private final javax.swing.Timer autoPlay =
+          new javax.swing.Timer(AUTO_PLAY_DELAY, e -> autoPlayMove());
+
+        /** Auto-play moves made since the last progress; see Simulator#isProgress. */
+        private int idleMoves;
+
+        /** Finds hints off the event dispatch thread. */
+        private final HintEngine hints = new HintEngine();
+
+        /** Move shown as a hint, or Strategy.NO_MOVE. */
+        private int hint = Strategy.NO_MOVE;
+
+        /** Number of the latest hint request; hints for older ones are dropped. */
+        private int hintRequest;
 
-        public GamePanel() {
+        /** Images of the cards, scaled to CARD_WIDTH by CARD_HEIGHT. */
+        private final CardAtlas cards;
+
+        /** Area each pile took up when last painted; see pileArea. */
+        private final Rectangle[] shown = new Rectangle[KlondikeModel.PILE_COUNT];
+
+        /** Bit p is set if pile p must be painted by the next repaintChanges(). */
+        private int dirtyPiles;
+
+        /** True if the instructions must be painted by the next repaintChanges(). */
+        private boolean instructionsDirty;
+
+        public GamePanel(CardAtlas cards) {
+            this.cards = cards;
             setBackground(DARK_GREEN);
             setPreferredSize( new Dimension(GAME_WIDTH, GAME_HEIGHT) );
 
-            model = new KlondikeModel();
+            model = newGame();
             waitingForSource = true;
+            // Note what each move changes, for repaintChanges
+            model.addListener(new KlondikeListener() {
+                @Override
+                public void moved(int source, int destination, int count) {
+                    dirtyPiles |= 1 << source | 1 << destination;
+                }
+
+                @Override
+                public void flipped(int pile, boolean faceUp) {
+                    dirtyPiles |= 1 << pile;
+                }
+
+                @Override
+                public void recycled(int count, boolean undone) {
+                    dirtyPiles |= 1 << KlondikeModel.DECK | 1 << KlondikeModel.DRAW_PILE;
+                }
+            });
 
             addMouseListener( new MouseAdapter() {
                 @Override
@@ -52,9 +104,200 @@ public class Klondike {
                     doMouseClick(e.getX(), e.getY());
                 }
             });
+
+
+            // Ctrl+Z undoes a move, Ctrl+Y redoes it
+            getInputMap(WHEN_IN_FOCUSED_WINDOW).put(
+              KeyStroke.getKeyStroke(KeyEvent.VK_Z, InputEvent.CTRL_DOWN_MASK), "undo");
+            getInputMap(WHEN_IN_FOCUSED_WINDOW).put(
+              KeyStroke.getKeyStroke(KeyEvent.VK_Y, InputEvent.CTRL_DOWN_MASK), "redo");
+            // Ctrl+H asks for a hint
+            getInputMap(WHEN_IN_FOCUSED_WINDOW).put(
+              KeyStroke.getKeyStroke(KeyEvent.VK_H, InputEvent.CTRL_DOWN_MASK), "hint");
+            getActionMap().put("hint", new AbstractAction() {
+                @Override
+                public void actionPerformed( ActionEvent e ) {
+                    requestHint();
+                }
+            });
+
+            // Ctrl+A starts or stops the computer playing
+            getInputMap(WHEN_IN_FOCUSED_WINDOW).put(
+              KeyStroke.getKeyStroke(KeyEvent.VK_A, InputEvent.CTRL_DOWN_MASK), "autoPlay");
+            getActionMap().put("autoPlay", new AbstractAction() {
+                @Override
+                public void actionPerformed( ActionEvent e ) {
+                    clearHint();
+                    if (autoPlay.isRunning()) {
+                        autoPlay.stop();
+                    } else {
+                        idleMoves = 0;
+                        endSelection();
+                        autoPlay.start();
+                    }
+                    repaintChanges();
+                }
+            });
+            getActionMap().put("undo", new AbstractAction() {
+                @Override
+                public void actionPerformed( ActionEvent e ) {
+                    autoPlay.stop();
+                    clearHint();
+                    model.undo();
+                    endSelection();
+                    repaintChanges();
+                }
+            });
+            getActionMap().put("redo", new AbstractAction() {
+                @Override
+                public void actionPerformed( ActionEvent e ) {
+                    autoPlay.stop();
+                    clearHint();
+                    model.redo();
+                    endSelection();
+                    repaintChanges();
+                }
+            });
+        }
+
+        /**
+         * Makes the auto-play strategy's next move, stopping once the game is
+         * won, the strategy gives up or it stops making progress. The
+         * strategy looks ahead in a snapshot, so its trial moves neither
+         * reach the listeners nor clear the player's redo history.
+         */
+        private void autoPlayMove() {
+            int move = model.isWon() ? Strategy.NO_MOVE : player.chooseMove(model.snapshot());
+            if (move == Strategy.NO_MOVE || idleMoves >= Simulator.DEFAULT_MAX_IDLE_MOVES) {
+                autoPlay.stop();
+            } else {
+                idleMoves = Simulator.isProgress(model.apply(move)) ? 0 : idleMoves + 1;
+            }
+            repaintChanges();
+        }
+
+        /**
+         * Deals a winnable game from the deal index, if there is one in the
+         * working directory, or else any game.
+         */
+        private KlondikeModel newGame() {
+            File file = new File(DealIndex.DEFAULT_FILE);
+            if (file.exists()) {
+                try {
+                    DealIndex index = DealIndex.open(file.toPath());
+                    if (index.size() > 0) {
+                        return new KlondikeModel(index);
+                    }
+                } catch (IOException ex) {
+                    ex.printStackTrace();
+                }
+            }
+            return new KlondikeModel();
+        }
+
+        /**
+         * Asks the hint engine for a move from the current position and shows
+         * it when it arrives, unless the position has changed by then.
+         */
+        private void requestHint() {
+            clearHint();
+            int request = hintRequest;
+            hints.request(model, move -> SwingUtilities.invokeLater(() -> {
+                if (request == hintRequest) {
+                    hint = move;
+                    markHint();
+                    repaintChanges();
+                }
+            }));
+            repaintChanges();
+        }
+
+        /** Hides the hint and abandons any search for one. */
+        private void clearHint() {
+            hintRequest++;
+            hints.cancel();
+            if (hint != Strategy.NO_MOVE) {
+                markHint();
+                hint = Strategy.NO_MOVE;
+            }
+        }
+
+        /** Marks the piles of the hint move, if there is one, for repainting. */
+        private void markHint() {
+            if (hint != Strategy.NO_MOVE) {
+                dirtyPiles |= 1 << Move.source(hint) | 1 << Move.destination(hint);
+            }
+        }
+
+        /** Drops any selected source pile. */
+        private void endSelection() {
+            if (!waitingForSource) {
+                waitingForSource = true;
+                dirtyPiles |= 1 << pileIndex(source);
+                instructionsDirty = true;
+            }
+        }
+
+        /** Starts a move from source, which must be one of the model's piles. */
+        private void select(Deck source) {
+            this.source = source;
+            waitingForSource = false;
+            dirtyPiles |= 1 << pileIndex(source);
+            instructionsDirty = true;
+        }
+
+        /** Returns the index of deck among the model's piles, as in KlondikeModel#getPile(int). */
+        private int pileIndex(Deck deck) {
+            for (int p = 0; p < KlondikeModel.PILE_COUNT; p++) {
+                if (model.getPile(p) == deck) {
+                    return p;
+                }
+            }
+            throw new IllegalArgumentException("Not a pile of this game");
+        }
+
+        /**
+         * Paints, right away, the piles marked in dirtyPiles since the last
+         * call, and the instructions if they changed, and nothing else.
+         * Each pile is painted on its own: Swing would merge repaint
+         * requests into one rectangle covering every pile in between. The
+         * areas are all worked out first, since painting one pile can update
+         * where a neighbouring pile was shown.
+         */
+        private void repaintChanges() {
+            int dirty = dirtyPiles;
+            dirtyPiles = 0;
+            Rectangle[] areas = new Rectangle[Integer.bitCount(dirty)];
+            for (int i = 0; dirty != 0; i++) {
+                areas[i] = pileArea(Integer.numberOfTrailingZeros(dirty));
+                dirty &= dirty - 1;
+            }
+            for (Rectangle area : areas) {
+                paintImmediately(area);
+            }
+            if (instructionsDirty) {
+                instructionsDirty = false;
+                paintImmediately(0, getHeight() - 60, getWidth(), 30);
+            }
+        }
+
+        /**
+         * Returns the area to paint for pile, covering both where it was last
+         * painted and where it is now, with room for the selection highlight
+         * and hint outline.
+         */
+        private Rectangle pileArea(int pile) {
+            Rectangle r = pileBounds(pile);
+            if (shown[pile] != null) {
+                r = r.union(shown[pile]);
+            }
+            r.grow(HIGHLIGHT_MARGIN, HIGHLIGHT_MARGIN);
+            return r;
         }
 
         private void doMouseClick(int x, int y) {
+            autoPlay.stop();
+            clearHint();
             int column = x*7/getWidth() + 1;
             if(column < 1) column = 1;
             else if (column > 7) column = 7;
@@ -65,24 +308,20 @@ public class Klondike {
                     if(column == 1) {
                         model.drawNextCard();
                     } else if(column == 2 && model.getDrawPile().size() > 0) {
-                        source = model.getDrawPile();
-                        waitingForSource = false;
-                    }
-                } else {
-                    source = model.getTableau(column - 1);
-                    if(source.size() > 0) {
-                        waitingForSource = false;
+                        select(model.getDrawPile());
                     }
+                } else if(model.getTableau(column - 1).size() > 0) {
+                    select(model.getTableau(column - 1));
                 }
             } else {
-                waitingForSource = true;
+                endSelection();
                 if(y < 0.3*getHeight()) {
                     model.moveToFoundation(source, column - 4);
                 } else {
                     model.moveToTableau(source, column - 1);
                 }
             }
-            repaint();
+            repaintChanges();
         }
 
         @Override
@@ -92,13 +331,24 @@ public class Klondike {
             int xUnit = getWidth() / 7 ;
             int xOffset = (xUnit - CARD_WIDTH) / 2;
             int yPos = 20;
-            draw(g, model.getDeck(), xOffset, yPos, false);
-            draw(g, model.getDrawPile(), xUnit + xOffset, yPos, false);
-            for (int i = 0; i < 4; i++) {
-                draw(g, model.getFoundation(i), (i + 3)*xUnit + xOffset, yPos, false);
+            // Only the piles inside the clip, usually those repaintChanges asked for
+            Rectangle clip = g.getClipBounds();
+            for (int p = 0; p < KlondikeModel.PILE_COUNT; p++) {
+                Rectangle r = pileBounds(p);
+                if (clip == null || clip.intersects(r.x - HIGHLIGHT_MARGIN, r.y - HIGHLIGHT_MARGIN,
+                  r.width + 2*HIGHLIGHT_MARGIN, r.height + 2*HIGHLIGHT_MARGIN)) {
+                    // Piles left out keep their old bounds, still to be cleared
+                    shown[p] = r;
+                    draw(g, model.getPile(p), r.x, r.y, p >= KlondikeModel.TABLEAU);
+                }
             }
-            for (int i = 0; i < 7; i++) {
-                draw(g, model.getTableau(i), i*xUnit + xOffset, (int)(0.3*getHeight()), true);
+            if (hint != Strategy.NO_MOVE) {
+                g.setColor(Color.CYAN);
+                for (int pile : new int[] { Move.source(hint), Move.destination(hint) }) {
+                    Rectangle r = pileBounds(pile);
+                    g.drawRect(r.x - 3, r.y - 3, r.width + 6, r.height + 6);
+                    g.drawRect(r.x - 4, r.y - 4, r.width + 8, r.height + 8);
+                }
             }
             // Draw labels for foundations
             g.setColor(Color.WHITE);
@@ -108,9 +358,28 @@ public class Klondike {
             g.drawString("Diamonds", 6*xUnit + xOffset, yPos - 5);
             // Draw instructions
             g.drawString(waitingForSource ?
-                "Click on deck, draw pile, or tableau." :
+                "Click on deck, draw pile, or tableau. Ctrl+Z undo, Ctrl+Y redo, Ctrl+H hint, Ctrl+A auto-play." :
                 "Click on destination, or on background to abort move.",
               30, getHeight() - 40);
+            g.drawString("Deal " + Long.toUnsignedString(model.getDealNumber()),
+              30, getHeight() - 20);
+        }
+
+        /**
+         * Returns the area pile (an index as in KlondikeModel#getPile(int))
+         * takes up on the screen, as drawn by paintComponent.
+         */
+        private Rectangle pileBounds(int pile) {
+            int xUnit = getWidth() / 7;
+            int xOffset = (xUnit - CARD_WIDTH) / 2;
+            if (pile < KlondikeModel.TABLEAU) {
+                int column = pile < KlondikeModel.FOUNDATION ? pile : pile - KlondikeModel.FOUNDATION + 3;
+                return new Rectangle(column*xUnit + xOffset, 20, CARD_WIDTH, CARD_HEIGHT);
+            }
+            Deck deck = model.getPile(pile);
+            int height = CARD_HEIGHT + SPLAY_OFFSET*Math.max(0, deck.size() - 1);
+            return new Rectangle((pile - KlondikeModel.TABLEAU)*xUnit + xOffset,
+              (int)(0.3*getHeight()), CARD_WIDTH, height);
         }
 
         /**
@@ -123,11 +392,12 @@ public class Klondike {
             // Highlight deck if it's selected
             if(!waitingForSource && deck == source) {
                 g.setColor(Color.YELLOW);
-                int height = CARD_HEIGHT+10;
+                int height = CARD_HEIGHT + 2*HIGHLIGHT_MARGIN;
                 if(splayed && deck.size() > 0) {
                     height += SPLAY_OFFSET*(deck.size() - 1);
                 }
-                g.fillRect(x-5, y-5, CARD_WIDTH+10, height);
+                g.fillRect(x - HIGHLIGHT_MARGIN, y - HIGHLIGHT_MARGIN,
+                  CARD_WIDTH + 2*HIGHLIGHT_MARGIN, height);
             }
 
             if (deck.size() == 0) {
@@ -135,36 +405,23 @@ public class Klondike {
                 g.fillRect(x, y, CARD_WIDTH, CARD_HEIGHT);
             } else if (splayed) {
                 for (int i = 0; i < deck.size(); i++) {
-                    draw(g, deck.getCardAt(i), x, y);
+                    draw(g, deck.getCardAt(i), deck.isFaceUp(i), x, y);
                     y += SPLAY_OFFSET;
                 }
             } else {
-                draw(g, deck.getCardAt(deck.size() - 1), x, y);
+                draw(g, deck.getTopCard(), deck.isFaceUp(deck.size() - 1), x, y);
             }
         }
 
         /** Draw one card */
-        private void draw(Graphics g, Card card, int x, int y) {
+        private void draw(Graphics g, Card card, boolean faceUp, int x, int y) {
             if(card != null) {
-                BufferedImage image = getImage(card);
-                g.drawImage(image, x, y, CARD_WIDTH, CARD_HEIGHT, null);
+                cards.draw(g, card, faceUp, x, y);
             }
         }
 
-        public BufferedImage getImage(Card card) {
-            String filename = imageFilename(card);
-            BufferedImage image = images.get(filename);
-            if(image == null) {
-                // Image not already stored in cache,
-                // so load it from file and remember it
-                try {
-                    image = ImageIO.read(new File(filename));
-                    images.put(filename, image);
-                } catch (Exception ex) {
-                    ex.printStackTrace();
-                }
-            }
-            return image;
+        public BufferedImage getImage(Card card, boolean faceUp) {
+            return cards.getImage(card, faceUp);
         }
 
     }
@@ -172,9 +429,10 @@ public class Klondike {
     /**
      * Returns the filename of the image for this card. All of the files (from
      * http://www.jfitz.com/cards/) should be in a directory "card-images".
+     * Face-down cards all share the image of the card back.
      */
-    public static String imageFilename(Card card) {
-        if (!card.isFaceUp()) {
+    public static String imageFilename(Card card, boolean faceUp) {
+        if (!faceUp) {
             return "card-images" + File.separator + "b2fv.png";
         }
         int result = 1 + card.getSuit().ordinal();
@@ -185,10 +443,10 @@ public class Klondike {
     }
 
 
-    public Klondike() {
+    public Klondike(CardAtlas cards) {
 
         JFrame frame = new JFrame("Klondike Solitaire");
-        JPanel gamePanel = new GamePanel();
+        JPanel gamePanel = new GamePanel(cards);
 
         frame.add(gamePanel, BorderLayout.CENTER);
 
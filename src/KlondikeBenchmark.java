@@ -0,0 +1,461 @@
+import java.lang.management.ManagementFactory;
+
+/**
+ * Micro-benchmarks for the card engine, to track its speed as it changes.
+ * Like a JMH run, each benchmark is warmed up and then measured over several
+ * timed iterations; the mean throughput, the spread between iterations and
+ * the bytes allocated per operation (what JMH's gc profiler reports as
+ * gc.alloc.rate.norm) are printed. Run with
+ * <pre>
+ *     java KlondikeBenchmark [name-filter]
+ * </pre>
+ * to run every benchmark, or only those whose names contain the filter.
+ */
+public class KlondikeBenchmark {
+
+    /** Time each benchmark runs before measurement starts. */
+    private static final long WARMUP_NANOS = 500_000_000L;
+
+    /** Number of measured iterations per benchmark. */
+    private static final int ITERATIONS = 5;
+
+    /** Length of each measured iteration. */
+    private static final long ITERATION_NANOS = 200_000_000L;
+
+    /** Longest random game played by the playout benchmark, in moves. */
+    private static final int MAX_PLAYOUT_MOVES = 1000;
+
+    /** Source of per-thread allocation counts, or null if unsupported. */
+    private static final com.sun.management.ThreadMXBean THREADS = threadBean();
+
+    /** Results of benchmark bodies, kept so the JIT cannot discard the work. */
+    private static volatile long sink;
+
+    /** Work to be timed. */
+    private interface Body {
+        /** Performs n operations and returns a value derived from them. */
+        long run(int n);
+    }
+
+    /** Only benchmarks whose names contain this are run. */
+    private static String filter = "";
+
+    /** Number of positions the move generation benchmarks cycle through. */
+    private static final int POSITIONS = 256;
+
+    public static void main(String[] args) {
+        if (args.length > 0) {
+            filter = args[0];
+        }
+        System.out.printf("%-40s %15s %9s %12s %10s%n",
+          "Benchmark", "ops/s", "error", "ns/op", "B/op");
+        deckBenchmarks();
+        modelBenchmarks();
+        // Card pairs, with an empty pile now and then
+        SplitMix64 rand = new SplitMix64(1);
+        Card[] a = new Card[1024];
+        Card[] b = new Card[1024];
+        for (int i = 0; i < a.length; i++) {
+            a[i] = Card.of(rand.nextInt(Card.COUNT));
+            b[i] = rand.nextInt(8) == 0 ? null : Card.of(rand.nextInt(Card.COUNT));
+        }
+        KlondikeModel model = new KlondikeModel(1L);
+        benchmark("successor (enum ordinals)", n -> {
+            long count = 0;
+            for (int i = 0; i < n; i++) {
+                if (enumSuccessor(a[i & 1023], b[i & 1023])) {
+                    count++;
+                }
+            }
+            return count;
+        });
+        benchmark("successor (table)", n -> {
+            long count = 0;
+            for (int i = 0; i < n; i++) {
+                if (model.successor(a[i & 1023], b[i & 1023])) {
+                    count++;
+                }
+            }
+            return count;
+        });
+
+        KlondikeModel[] positions = playedPositions();
+        MoveBuffer moves = new MoveBuffer();
+        benchmark("generateMoves", n -> {
+            long count = 0;
+            for (int i = 0; i < n; i++) {
+                positions[i & (POSITIONS - 1)].generateMoves(moves);
+                count += moves.size();
+            }
+            return count;
+        });
+        benchmark("generateMoves (enum ordinals)", n -> {
+            long count = 0;
+            for (int i = 0; i < n; i++) {
+                count += enumGenerateMoves(positions[i & (POSITIONS - 1)], moves);
+            }
+            return count;
+        });
+
+        for (String name : new String[] { "random", "greedy", "lookahead-1", "lookahead-2", "mcts-1000" }) {
+            Strategy strategy = Strategy.of(name, 5);
+            benchmark("chooseMove (" + name + ")", n -> {
+                long total = 0;
+                for (int i = 0; i < n; i++) {
+                    total += strategy.chooseMove(positions[i & (POSITIONS - 1)]);
+                }
+                return total;
+            });
+        }
+    }
+
+    /** Benchmarks the Deck operations. */
+    private static void deckBenchmarks() {
+        Card card = Card.of(Rank.FIVE, Suit.HEARTS);
+        Deck deck = new Deck();
+        benchmark("Deck.add", n -> {
+            for (int i = 0; i < n; i++) {
+                if (deck.size() == Card.COUNT) {
+                    deck.remove(Card.COUNT);
+                }
+                deck.add(card);
+            }
+            return deck.size();
+        });
+        Deck full = new Deck();
+        benchmark("Deck.remove", n -> {
+            for (int i = 0; i < n; i++) {
+                if (full.size() == 0) {
+                    full.fill();
+                }
+                full.remove(1);
+            }
+            return full.size();
+        });
+        Deck here = new Deck();
+        here.fill();
+        Deck there = new Deck();
+        benchmark("Deck.moveTo", n -> {
+            for (int i = 0; i < n; i += 2) {
+                here.moveTo(there);
+                there.moveTo(here);
+            }
+            return here.size();
+        });
+        benchmark("Deck.moveTo(5 cards)", n -> {
+            for (int i = 0; i < n; i += 2) {
+                here.moveTo(there, 5);
+                there.moveTo(here, 5);
+            }
+            return here.size();
+        });
+        SplitMix64 rand = new SplitMix64(3);
+        benchmark("Deck.shuffle(SplitMix64)", n -> {
+            for (int i = 0; i < n; i++) {
+                here.shuffle(rand);
+            }
+            return here.getTopCard().ordinal();
+        });
+        benchmark("Deck.shuffle() (SecureRandom)", n -> {
+            for (int i = 0; i < n; i++) {
+                here.shuffle();
+            }
+            return here.getTopCard().ordinal();
+        });
+        KlondikeModel model = new KlondikeModel(1L);
+        benchmark("Deck.size", n -> {
+            long total = 0;
+            for (int i = 0; i < n; i++) {
+                total += model.getPile(i % KlondikeModel.PILE_COUNT).size();
+            }
+            return total;
+        });
+        benchmark("Deck.getTopCard", n -> {
+            long total = 0;
+            for (int i = 0; i < n; i++) {
+                Card top = model.getTableau(i % 7).getTopCard();
+                total += top == null ? 0 : top.ordinal();
+            }
+            return total;
+        });
+    }
+
+    /** Benchmarks dealing, the move rules and whole games. */
+    private static void modelBenchmarks() {
+        long[] deal = { 0 };
+        benchmark("new KlondikeModel(long)", n -> {
+            long total = 0;
+            for (int i = 0; i < n; i++) {
+                total += new KlondikeModel(deal[0]++).getDrawPile().getTopCard().ordinal();
+            }
+            return total;
+        });
+
+        KlondikeModel model = new KlondikeModel(1L);
+        // 8S 7H go back and forth between a 9H and a 9D
+        Deck a = new Deck();
+        a.add(Card.of(Rank.NINE, Suit.HEARTS));
+        a.add(Card.of(Rank.EIGHT, Suit.SPADES));
+        a.add(Card.of(Rank.SEVEN, Suit.HEARTS));
+        Deck b = new Deck();
+        b.add(Card.of(Rank.NINE, Suit.DIAMONDS));
+        benchmark("klondikeMove", n -> {
+            for (int i = 0; i < n; i += 2) {
+                model.klondikeMove(a, b);
+                model.klondikeMove(b, a);
+            }
+            return a.size();
+        });
+
+        Deck source = new Deck();
+        source.add(Card.of(Rank.ACE, Suit.HEARTS));
+        Deck foundation = model.getFoundation(Suit.HEARTS);
+        benchmark("moveToFoundation (and back)", n -> {
+            for (int i = 0; i < n; i++) {
+                model.moveToFoundation(source, Suit.HEARTS.ordinal());
+                foundation.moveTo(source);
+            }
+            return source.size();
+        });
+
+        KlondikeModel[] drawing = { new KlondikeModel(1L) };
+        benchmark("drawNextCard", n -> {
+            for (int i = 0; i < n; i++) {
+                // Start over now and then, so the undo history stays small
+                if ((i & 1023) == 1023) {
+                    drawing[0] = new KlondikeModel(1L);
+                }
+                drawing[0].drawNextCard();
+            }
+            return drawing[0].getDeck().size();
+        });
+
+        KlondikeModel recycling = new KlondikeModel(1L, KlondikeRules.DRAW_THREE);
+        while (recycling.getDeck().size() > 0) {
+            recycling.drawNextCard();
+        }
+        benchmark("recycle and undo", n -> {
+            for (int i = 0; i < n; i++) {
+                recycling.apply(Move.DRAW);
+                recycling.undo();
+            }
+            return recycling.getDrawPile().size();
+        });
+
+        KlondikeModel played = playedPositions()[POSITIONS - 1];
+        benchmark("snapshot", n -> {
+            long total = 0;
+            for (int i = 0; i < n; i++) {
+                total += played.snapshot().getDeck().size();
+            }
+            return total;
+        });
+        MoveBuffer snapshotMoves = new MoveBuffer();
+        played.generateMoves(snapshotMoves);
+        int move = snapshotMoves.get(snapshotMoves.size() - 1);
+        benchmark("snapshot and apply", n -> {
+            long total = 0;
+            for (int i = 0; i < n; i++) {
+                total += played.snapshot().apply(move);
+            }
+            return total;
+        });
+
+        KlondikeModel heard = played.snapshot();
+        long[] events = { 0 };
+        heard.addListener(new KlondikeListener() {
+            @Override
+            public void moved(int source, int destination, int count) {
+                events[0] += count;
+            }
+
+            @Override
+            public void flipped(int pile, boolean faceUp) {
+                events[0]++;
+            }
+        });
+        benchmark("apply and undo, listened to", n -> {
+            for (int i = 0; i < n; i++) {
+                heard.apply(move);
+                heard.undo();
+            }
+            return events[0];
+        });
+
+        KlondikeState state = KlondikeState.of(played);
+        benchmark("KlondikeState.apply", n -> {
+            long total = 0;
+            for (int i = 0; i < n; i++) {
+                total += state.apply(move).getHash();
+            }
+            return total;
+        });
+
+        SplitMix64 rand = new SplitMix64(4);
+        MoveBuffer playoutMoves = new MoveBuffer();
+        benchmark("random playout (whole game)", n -> {
+            long total = 0;
+            for (int i = 0; i < n; i++) {
+                KlondikeModel game = new KlondikeModel(deal[0]++);
+                for (int m = 0; m < MAX_PLAYOUT_MOVES && !game.isWon(); m++) {
+                    game.generateMoves(playoutMoves);
+                    if (playoutMoves.size() == 0) {
+                        break;
+                    }
+                    game.apply(playoutMoves.get(rand.nextInt(playoutMoves.size())));
+                }
+                total += game.getFoundation(0).size();
+            }
+            return total;
+        });
+    }
+
+    /**
+     * Runs body, first to warm up and then for ITERATIONS timed iterations,
+     * and prints the mean operations per second with the largest difference
+     * of an iteration from the mean, the mean nanoseconds per operation and
+     * the bytes allocated per operation.
+     */
+    private static void benchmark(String name, Body body) {
+        if (!name.contains(filter)) {
+            return;
+        }
+        int batch = 1;
+        long start = System.nanoTime();
+        while (System.nanoTime() - start < WARMUP_NANOS) {
+            sink += body.run(batch);
+            if (batch < (1 << 20) && System.nanoTime() - start < WARMUP_NANOS / 2) {
+                batch *= 2;
+            }
+        }
+        double[] rates = new double[ITERATIONS];
+        long totalOps = 0;
+        long totalNanos = 0;
+        long allocated = allocatedBytes();
+        for (int it = 0; it < ITERATIONS; it++) {
+            long ops = 0;
+            long elapsed;
+            start = System.nanoTime();
+            do {
+                sink += body.run(batch);
+                ops += batch;
+                elapsed = System.nanoTime() - start;
+            } while (elapsed < ITERATION_NANOS);
+            rates[it] = ops * 1e9 / elapsed;
+            totalOps += ops;
+            totalNanos += elapsed;
+        }
+        allocated = allocatedBytes() - allocated;
+        double mean = totalOps * 1e9 / totalNanos;
+        double error = 0;
+        for (double rate : rates) {
+            error = Math.max(error, Math.abs(rate - mean));
+        }
+        System.out.printf("%-40s %,15.0f %8.1f%% %12.2f %10s%n",
+          name, mean, 100 * error / mean, (double) totalNanos / totalOps,
+          allocated < 0 ? "n/a" : String.format("%.1f", (double) allocated / totalOps));
+    }
+
+    /**
+     * Returns the number of bytes allocated so far by this thread, or -1 if
+     * the JVM cannot tell.
+     */
+    private static long allocatedBytes() {
+        return THREADS == null ? -1 : THREADS.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /** Returns the JVM's thread bean if it counts allocations, else null. */
+    private static com.sun.management.ThreadMXBean threadBean() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+            if (threads.isThreadAllocatedMemorySupported()) {
+                threads.setThreadAllocatedMemoryEnabled(true);
+                return threads;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns POSITIONS games, each after a random number of random legal
+     * moves from a different deal.
+     */
+    private static KlondikeModel[] playedPositions() {
+        KlondikeModel[] positions = new KlondikeModel[POSITIONS];
+        SplitMix64 rand = new SplitMix64(2);
+        MoveBuffer moves = new MoveBuffer();
+        for (int i = 0; i < positions.length; i++) {
+            KlondikeModel model = new KlondikeModel(i);
+            int length = rand.nextInt(100);
+            for (int j = 0; j < length; j++) {
+                model.generateMoves(moves);
+                model.apply(moves.get(rand.nextInt(moves.size())));
+            }
+            positions[i] = model.snapshot();
+        }
+        return positions;
+    }
+
+    /**
+     * The successor test as it was before the lookup tables: enum ordinals
+     * and suit comparisons. Kept only as a baseline.
+     */
+    private static boolean enumSuccessor(Card a, Card b) {
+        return ((b == null) && (a.getRank() == Rank.KING))
+          || ((b != null)
+          && (a.getRank().ordinal() == b.getRank().ordinal() - 1)
+          && (a.isRed() != b.isRed()));
+    }
+
+    /**
+     * Move generation as it was before the lookup tables, for comparison
+     * with KlondikeModel#generateMoves.
+     *
+     * @return the number of moves found
+     */
+    private static int enumGenerateMoves(KlondikeModel model, MoveBuffer moves) {
+        moves.clear();
+        Deck drawPile = model.getDrawPile();
+        if (model.getDeck().size() > 0 || drawPile.size() > 0) {
+            moves.add(Move.DRAW);
+        }
+        Card waste = drawPile.getTopCard();
+        if (waste != null) {
+            if (model.getFoundation(waste.getSuit()).size() == waste.getRank().ordinal()) {
+                moves.add(Move.of(KlondikeModel.DRAW_PILE,
+                  KlondikeModel.FOUNDATION + waste.getSuit().ordinal(), 1));
+            }
+            for (int t = 0; t < 7; t++) {
+                if (enumSuccessor(waste, model.getTableau(t).getTopCard())) {
+                    moves.add(Move.of(KlondikeModel.DRAW_PILE, KlondikeModel.TABLEAU + t, 1));
+                }
+            }
+        }
+        for (int s = 0; s < 7; s++) {
+            Deck source = model.getTableau(s);
+            int size = source.size();
+            if (size == 0) {
+                continue;
+            }
+            Card top = source.getTopCard();
+            if (model.getFoundation(top.getSuit()).size() == top.getRank().ordinal()) {
+                moves.add(Move.of(KlondikeModel.TABLEAU + s,
+                  KlondikeModel.FOUNDATION + top.getSuit().ordinal(), 1));
+            }
+            for (int d = 0; d < 7; d++) {
+                if (d == s) {
+                    continue;
+                }
+                Card destTop = model.getTableau(d).getTopCard();
+                for (int i = size - 1; i >= source.getFaceDownCount(); i--) {
+                    if (enumSuccessor(source.getCardAt(i), destTop)) {
+                        moves.add(Move.of(KlondikeModel.TABLEAU + s, KlondikeModel.TABLEAU + d, size - i));
+                        break;
+                    }
+                }
+            }
+        }
+        return moves.size();
+    }
+}
@@ -0,0 +1,40 @@
+/**
+ * Receives the changes a KlondikeModel makes to its piles, as they happen,
+ * so that a view, a statistics collector or a recorder can keep up with a
+ * game without rereading every pile after each move. Piles are given by
+ * index, as in KlondikeModel#getPile(int). Every change is reported,
+ * including those made by undo and redo, in the order the model makes
+ * them.
+ * <p>
+ * The events are plain method calls with primitive arguments, so nothing
+ * is allocated to report them. Each method does nothing by default, so a
+ * listener implements only those it needs. Listeners are called in the
+ * thread that plays the game and must not change the model.
+ *
+ * @see KlondikeModel#addListener(KlondikeListener)
+ */
+public interface KlondikeListener {
+
+    /**
+     * Called when count cards have moved, keeping their order, from the top
+     * of pile source to the top of pile destination.
+     */
+    default void moved(int source, int destination, int count) {
+    }
+
+    /** Called when the top card of pile has been turned face up or face down. */
+    default void flipped(int pile, boolean faceUp) {
+    }
+
+    /**
+     * Called when the draw pile's count cards have been turned over onto the
+     * empty deck, or, if undone is true, when undo has turned the deck's
+     * count cards back over onto the empty draw pile.
+     */
+    default void recycled(int count, boolean undone) {
+    }
+
+    /** Called when a move has put the last card on the foundations. */
+    default void won() {
+    }
+}
@@ -1,8 +1,104 @@
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+
 /**
  * Model of the Klondike solitaire game.
  */
 public class KlondikeModel {
 
+    /** Index of the deck among the piles; see getPile(int). */
+    public static final int DECK = 0;
+
+    /** Index of the draw pile among the piles. */
+    public static final int DRAW_PILE = 1;
+
+    /** Index of the first foundation; foundation i is FOUNDATION + i. */
+    public static final int FOUNDATION = 2;
+
+    /** Index of the first tableau pile; tableau pile i is TABLEAU + i. */
+    public static final int TABLEAU = 6;
+
+    /** The number of piles: deck, draw pile, 4 foundations and 7 tableau. */
+    public static final int PILE_COUNT = 13;
+
+    /** The number of longs written by pack(long[]). */
+    public static final int PACKED_LENGTH = 8;
+
+    /** Bits per field (pile size, face-down count or card) in a packed game. */
+    private static final int PACKED_BITS = 6;
+
+    /**
+     * Zobrist keys for each pile; see Deck#setHashKeys(long[]). They come
+     * from a fixed seed, so hashes are the same in every run. The deck and
+     * the draw pile share one set of keys, which does not depend on which
+     * way up a card is, and the tableau piles share another, so that
+     * getCanonicalHash() can combine their hashes without regard to which
+     * pile a card is in; getHash() tells them apart with PILE_SALTS.
+     */
+    private static final long[][] HASH_KEYS = new long[PILE_COUNT][];
+
+    /** Added to the hash of each pile that shares its keys, before mixing; see pileHash. */
+    private static final long[] PILE_SALTS = new long[PILE_COUNT];
+
+    /** Added to the number of recycles before mixing; see recycleKey. */
+    private static final long RECYCLE_SALT;
+
+    /** Bit standing for an empty pile in STACK_TARGETS. */
+    private static final int EMPTY = Card.COUNT;
+
+    /**
+     * For each card ordinal a, bit b is set if a may be placed on the card
+     * with ordinal b, and bit EMPTY is set if a may start an empty tableau
+     * pile. See successor(Card, Card).
+     */
+    private static final long[] STACK_TARGETS = new long[Card.COUNT];
+
+    /**
+     * Ordinal of the card that goes next on the foundation for a suit, indexed
+     * by suit * 14 + the foundation's size, or -1 once the suit is complete.
+     */
+    private static final int[] NEXT_FOUNDATION_CARD = new int[4 * (Card.SUIT_SIZE + 1)];
+
+    static {
+        for (int a = 0; a < Card.COUNT; a++) {
+            Card c = Card.of(a);
+            if (c.getRank() == Rank.KING) {
+                STACK_TARGETS[a] |= 1L << EMPTY;
+            }
+            for (int b = 0; b < Card.COUNT; b++) {
+                Card d = Card.of(b);
+                if (c.getRank().ordinal() == d.getRank().ordinal() - 1
+                  && c.isRed() != d.isRed()) {
+                    STACK_TARGETS[a] |= 1L << b;
+                }
+            }
+        }
+        for (int suit = 0; suit < 4; suit++) {
+            for (int size = 0; size <= Card.SUIT_SIZE; size++) {
+                NEXT_FOUNDATION_CARD[suit * (Card.SUIT_SIZE + 1) + size] =
+                  size < Card.SUIT_SIZE ? suit * Card.SUIT_SIZE + size : -1;
+            }
+        }
+    }
+
+    static {
+        SplitMix64 random = new SplitMix64(0x5EEDL);
+        for (int p = 0; p < PILE_COUNT; p++) {
+            if (p == DRAW_PILE || p > TABLEAU) {
+                HASH_KEYS[p] = HASH_KEYS[p == DRAW_PILE ? DECK : TABLEAU];
+            } else {
+                HASH_KEYS[p] = new long[2 * Card.COUNT];
+                for (int i = 0; i < HASH_KEYS[p].length; i++) {
+                    HASH_KEYS[p][i] = random.nextLong();
+                }
+            }
+            PILE_SALTS[p] = random.nextLong();
+        }
+        RECYCLE_SALT = random.nextLong();
+        System.arraycopy(HASH_KEYS[DECK], 0, HASH_KEYS[DECK], Card.COUNT, Card.COUNT);
+    }
+
     /** The deck of undrawn cards. */
     private Deck deck;
 
@@ -15,30 +111,146 @@ public class KlondikeModel {
     /** Splayed piles of cards. */
     private Deck[] tableau;
 
+    /** History of a game with no moves yet; shared, as it is never written. */
+    private static final int[] NO_HISTORY = new int[0];
+
+    /** Every pile, in the order given by DECK, DRAW_PILE, etc. */
+    private Deck[] piles;
+
+    /**
+     * Moves made through apply, with the flags it returned: the first
+     * undoCount can be undone, the rest up to historySize can be redone.
+     */
+    private int[] history = NO_HISTORY;
+
+    /** Number of moves in history that can be undone. */
+    private int undoCount;
+
+    /** Number of moves in history, including those that can be redone. */
+    private int historySize;
+
+    /** Listeners of a game nobody listens to; shared, as it is never written. */
+    private static final KlondikeListener[] NO_LISTENERS = new KlondikeListener[0];
+
+    /**
+     * Listeners told of every change; replaced, never written, when one is
+     * added or removed, so telling them allocates nothing.
+     */
+    private KlondikeListener[] listeners = NO_LISTENERS;
+
+    /** Number that reproduces this deal; see KlondikeModel(long). */
+    private long dealNumber;
+
+    /** False if the deck was shuffled without a deal number. */
+    private boolean numbered;
+
+    /** How many cards a draw turns over and how often the deck may be gone through. */
+    private KlondikeRules rules = KlondikeRules.DRAW_ONE;
+
+    /** Number of times the draw pile has been turned back over onto the deck. */
+    private int recycles;
+
+    /** Deals a game with a randomly chosen deal number. */
     public KlondikeModel() {
-        // Prepare the deck
+        this(ThreadLocalRandom.current().nextLong());
+    }
+
+    /**
+     * Deals numbered game dealNumber. The same number always produces the
+     * same layout, so any game can be replayed from its number.
+     */
+    public KlondikeModel(long dealNumber) {
+        this(dealNumber, KlondikeRules.DRAW_ONE);
+    }
+
+    /**
+     * Deals numbered game dealNumber, as KlondikeModel(long) does, to be
+     * played by rules. The deal does not depend on the rules.
+     */
+    public KlondikeModel(long dealNumber, KlondikeRules rules) {
+        this.rules = rules;
         deck = new Deck();
         deck.fill();
-        deck.shuffle();
-        for (int i = 0; i < deck.size(); i++) {
-            Card c = deck.getCardAt(i);
-            if(c != null && c.isFaceUp()) {
-                c.flipOver();
-            }
+        deck.shuffle(new SplitMix64(dealNumber));
+        this.dealNumber = dealNumber;
+        numbered = true;
+        deal();
+    }
+
+    /**
+     * Deals a game picked at random from index, so that it is known to be
+     * winnable. No solving happens here; see DealIndex.
+     *
+     * @throws IllegalStateException if the index is empty
+     */
+    public KlondikeModel(DealIndex index) {
+        this(index.randomDeal());
+    }
+
+    /**
+     * Deals a game shuffled with the given SecureRandom. Such a deal can
+     * reach every ordering of the deck but has no deal number.
+     */
+    public KlondikeModel(SecureRandom random) {
+        deck = new Deck();
+        deck.fill();
+        deck.shuffle(random);
+        numbered = false;
+        deal();
+    }
+
+    /**
+     * Creates a copy of other; see snapshot().
+     */
+    public KlondikeModel(KlondikeModel other) {
+        this(other.piles, other.dealNumber, other.numbered, other.rules, other.recycles);
+    }
+
+    /**
+     * Creates a game over copies (see Deck(Deck)) of piles, indexed as by
+     * getPile(int), numbered dealNumber if numbered is true, played by rules
+     * with the draw pile turned over recycles times so far.
+     */
+    KlondikeModel(Deck[] piles, long dealNumber, boolean numbered, KlondikeRules rules,
+      int recycles) {
+        this.piles = new Deck[PILE_COUNT];
+        for (int p = 0; p < PILE_COUNT; p++) {
+            this.piles[p] = new Deck(piles[p]);
         }
+        deck = this.piles[DECK];
+        drawPile = this.piles[DRAW_PILE];
+        foundations = Arrays.copyOfRange(this.piles, FOUNDATION, TABLEAU);
+        tableau = Arrays.copyOfRange(this.piles, TABLEAU, PILE_COUNT);
+        this.dealNumber = dealNumber;
+        this.numbered = numbered;
+        this.rules = rules;
+        this.recycles = recycles;
+    }
+
+    /**
+     * Returns a copy of this game. The copy's piles are separate decks, so
+     * moves made in one game do not affect the other, but they share their
+     * arrays of cards until either game changes a pile (see Deck(Deck)), so
+     * a snapshot takes a few small allocations and no copying of cards. Only
+     * the thread that plays this game may take a snapshot of it; the snapshot
+     * can then be handed to any thread. The copy starts with no moves to
+     * undo.
+     */
+    public KlondikeModel snapshot() {
+        return new KlondikeModel(this);
+    }
+
+    /** Lays out the tableau and draw pile from the shuffled deck. */
+    private void deal() {
+        deck.turnFaceDown();
         // Create the tableau
         tableau = new Deck[7];
         for (int i = 0; i < tableau.length; i++) {
             tableau[i] = new Deck();
             for (int j = 0; j <= i; j++) {
                 deck.moveTo(tableau[i]);
-                if (j == i) {
-                    Card c = tableau[i].getCardAt(j);
-                    if(c != null && !c.isFaceUp()) {
-                        c.flipOver();
-                    }
-                }
             }
+            tableau[i].turnTopCardFaceUp();
         }
         // Create the empty foundations
         foundations = new Deck[4];
@@ -48,32 +260,102 @@ public class KlondikeModel {
         // Draw the first card
         drawPile = new Deck();
         deck.moveTo(drawPile);
-        Card topCard = drawPile.getTopCard();
-        if(topCard != null && !topCard.isFaceUp()) {
-            topCard.flipOver();
+        drawPile.turnTopCardFaceUp();
+        indexPiles();
+        for (int p = 0; p < PILE_COUNT; p++) {
+            piles[p].setHashKeys(HASH_KEYS[p]);
         }
     }
 
     /**
-     * Takes the next card from the deck and places it face up on the draw pile.
-     * Moves the draw pile back to the deck if deck is empty.
+     * Creates a game from the encoding written by pack(long[]). The game has
+     * no deal number and is played by KlondikeRules.DRAW_ONE.
      */
-    public void drawNextCard() {
-        if (deck.size() > 0) {
-            deck.moveTo(drawPile);
-            Card c = drawPile.getTopCard();
-            if(!c.isFaceUp()) {
-                c.flipOver();
-            }
-        } else {
-            while(drawPile.size() > 0) {
-                drawPile.moveTo(deck);
-                Card c = deck.getTopCard();
-                if(c.isFaceUp()) {
-                    c.flipOver();
+    public KlondikeModel(long[] packed) {
+        int field = 0;
+        piles = new Deck[PILE_COUNT];
+        for (int p = 0; p < PILE_COUNT; p++) {
+            Deck pile = new Deck();
+            int size = unpackField(packed, field++);
+            int faceDown = unpackField(packed, field++);
+            for (int i = 0; i < size; i++) {
+                if (i == faceDown) {
+                    pile.turnFaceDown();
                 }
+                pile.add(Card.of(unpackField(packed, field++)));
             }
+            if (faceDown == size) {
+                pile.turnFaceDown();
+            }
+            pile.setHashKeys(HASH_KEYS[p]);
+            piles[p] = pile;
         }
+        deck = piles[DECK];
+        drawPile = piles[DRAW_PILE];
+        foundations = Arrays.copyOfRange(piles, FOUNDATION, TABLEAU);
+        tableau = Arrays.copyOfRange(piles, TABLEAU, PILE_COUNT);
+        numbered = false;
+    }
+
+    /** Fills in piles from the named piles. */
+    private void indexPiles() {
+        piles = new Deck[PILE_COUNT];
+        piles[DECK] = deck;
+        piles[DRAW_PILE] = drawPile;
+        System.arraycopy(foundations, 0, piles, FOUNDATION, foundations.length);
+        System.arraycopy(tableau, 0, piles, TABLEAU, tableau.length);
+    }
+
+    /** Returns the number that reproduces this deal. */
+    public long getDealNumber() {
+        return dealNumber;
+    }
+
+    /**
+     * Returns true if this game was dealt from a deal number, false if it was
+     * shuffled with a SecureRandom.
+     */
+    public boolean hasDealNumber() {
+        return numbered;
+    }
+
+    /** Returns the rules this game is played by. */
+    public KlondikeRules getRules() {
+        return rules;
+    }
+
+    /** Returns the number of times the draw pile has been turned back over. */
+    public int getRecycles() {
+        return recycles;
+    }
+
+    /**
+     * Takes the next card, or the next three under KlondikeRules.DRAW_THREE,
+     * from the deck and places them face up on the draw pile. Moves the draw
+     * pile back to the deck if deck is empty and the rules allow another
+     * pass.
+     */
+    public void drawNextCard() {
+        int move = drawMove(piles, rules, recycles);
+        if (move != 0) {
+            apply(move);
+        }
+    }
+
+    /**
+     * Returns the move that draws from the deck of piles, or turns the draw
+     * pile back over, as rules allow after recycles passes, or 0 if there is
+     * none. (A move of no cards from the deck to itself is never legal.)
+     */
+    static int drawMove(Deck[] piles, KlondikeRules rules, int recycles) {
+        int left = piles[DECK].size();
+        if (left > 0) {
+            return Move.of(DECK, DRAW_PILE, Math.min(rules.getDrawCount(), left));
+        }
+        if (piles[DRAW_PILE].size() > 0 && rules.canRecycle(recycles)) {
+            return Move.DRAW;
+        }
+        return 0;
     }
 
     /** Returns the deck. */
@@ -103,6 +385,208 @@ public class KlondikeModel {
         return tableau[i];
     }
 
+    /**
+     * Returns the pile with index i: DECK, DRAW_PILE, FOUNDATION + suit, or
+     * TABLEAU + column.
+     */
+    public Deck getPile(int i) {
+        return piles[i];
+    }
+
+    /**
+     * Returns a 64-bit Zobrist hash of the position, combining the hashes of
+     * the piles. Each pile updates its part as cards move, so this takes
+     * constant time. Within one deal, positions with the same cards in each
+     * pile are the same position, so the order of cards is not hashed.
+     */
+    public long getHash() {
+        return hash(piles) ^ recycleKey(rules, recycles);
+    }
+
+    /**
+     * Returns the part of the hash that stands for the number of passes
+     * through the deck: 0 if rules set no limit, when the passes made so far
+     * do not change what can happen next.
+     */
+    static long recycleKey(KlondikeRules rules, int recycles) {
+        return rules.isUnlimited() ? 0 : SplitMix64.mix64(RECYCLE_SALT + recycles);
+    }
+
+    /** Returns the hash of the position made up of piles, as getHash() does. */
+    static long hash(Deck[] piles) {
+        long h = 0;
+        for (int p = 0; p < PILE_COUNT; p++) {
+            h ^= pileHash(p, piles[p]);
+        }
+        return h;
+    }
+
+    /**
+     * Returns pile p's part of getHash(): its own hash, salted and mixed if
+     * p shares its keys with other piles, so that the same cards hash
+     * differently in different piles.
+     */
+    static long pileHash(int p, Deck pile) {
+        long h = pile.getHash();
+        return p >= FOUNDATION && p < TABLEAU ? h : SplitMix64.mix64(h + PILE_SALTS[p]);
+    }
+
+    /**
+     * Returns a 64-bit hash of the position that ignores differences that
+     * cannot matter to a search for a win, so that a search need visit only
+     * one position of each kind. The tableau columns are hashed as a set,
+     * so positions with the same columns in a different order hash alike.
+     * When the rules draw one card at a time with no limit on passes (see
+     * KlondikeRules#drawsCycleFreely()), the deck and draw pile are hashed
+     * together, as the cards still to be drawn through, so positions that
+     * differ only by how far the deck has been drawn hash alike too: drawing
+     * leads from any such position to the rest. A search must therefore
+     * still follow the draws from a position; see Solver. Under other rules
+     * the deck and draw pile are hashed apart, with the passes made.
+     */
+    public long getCanonicalHash() {
+        return canonicalHash(piles, rules, recycles);
+    }
+
+    /**
+     * Returns the canonical hash of the position made up of piles, played by
+     * rules after recycles passes.
+     */
+    static long canonicalHash(Deck[] piles, KlondikeRules rules, int recycles) {
+        long h = rules.drawsCycleFreely()
+          ? SplitMix64.mix64(piles[DECK].getHash() ^ piles[DRAW_PILE].getHash())
+          : pileHash(DECK, piles[DECK]) ^ pileHash(DRAW_PILE, piles[DRAW_PILE])
+            ^ recycleKey(rules, recycles);
+        for (int p = FOUNDATION; p < TABLEAU; p++) {
+            h ^= piles[p].getHash();
+        }
+        for (int p = TABLEAU; p < PILE_COUNT; p++) {
+            // Columns never hold the same cards, so their mixed hashes do not cancel
+            h ^= SplitMix64.mix64(piles[p].getHash());
+        }
+        return h;
+    }
+
+    /**
+     * Writes a compact encoding of the position into out, which must have at
+     * least PACKED_LENGTH elements. Each pile is written as its size, its
+     * number of face-down cards and the ordinals of its cards, six bits each.
+     */
+    public void pack(long[] out) {
+        pack(piles, out);
+    }
+
+    /** Writes the encoding of the position made up of piles into out. */
+    static void pack(Deck[] piles, long[] out) {
+        Arrays.fill(out, 0, PACKED_LENGTH, 0L);
+        int field = 0;
+        for (Deck pile : piles) {
+            packField(out, field++, pile.size());
+            packField(out, field++, pile.getFaceDownCount());
+            for (int i = 0; i < pile.size(); i++) {
+                packField(out, field++, pile.getCardAt(i).ordinal());
+            }
+        }
+    }
+
+    /** Returns a compact encoding of the position; see pack(long[]). */
+    public long[] pack() {
+        long[] out = new long[PACKED_LENGTH];
+        pack(out);
+        return out;
+    }
+
+    /** Stores a six-bit value as field number field of packed. */
+    private static void packField(long[] packed, int field, int value) {
+        int bit = field * PACKED_BITS;
+        int word = bit >>> 6;
+        int offset = bit & 63;
+        packed[word] |= (long) value << offset;
+        if (offset > 64 - PACKED_BITS) {
+            packed[word + 1] |= (long) value >>> (64 - offset);
+        }
+    }
+
+    /** Returns the six-bit value stored as field number field of packed. */
+    private static int unpackField(long[] packed, int field) {
+        int bit = field * PACKED_BITS;
+        int word = bit >>> 6;
+        int offset = bit & 63;
+        long value = packed[word] >>> offset;
+        if (offset > 64 - PACKED_BITS) {
+            value |= packed[word + 1] << (64 - offset);
+        }
+        return (int) (value & ((1 << PACKED_BITS) - 1));
+    }
+
+    /**
+     * Returns true if other is a game with the same cards, face up or down,
+     * in the same places, played by the same rules with the same passes left.
+     * Deal numbers are not compared.
+     */
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) {
+            return true;
+        }
+        if (!(other instanceof KlondikeModel)) {
+            return false;
+        }
+        KlondikeModel that = (KlondikeModel) other;
+        return getHash() == that.getHash() && rules.equals(that.rules)
+          && (rules.isUnlimited() || recycles == that.recycles) && samePiles(piles, that.piles);
+    }
+
+    /**
+     * Returns true if piles a and b hold the same cards, face up or down, in
+     * the same places.
+     */
+    static boolean samePiles(Deck[] a, Deck[] b) {
+        for (int p = 0; p < PILE_COUNT; p++) {
+            if (!samePile(a[p], b[p])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Returns true if decks a and b hold the same cards, face up or down. */
+    private static boolean samePile(Deck a, Deck b) {
+        if (a == b) {
+            return true;
+        }
+        if (a.size() != b.size() || a.getFaceDownCount() != b.getFaceDownCount()) {
+            return false;
+        }
+        for (int i = 0; i < a.size(); i++) {
+            if (a.getCardAt(i).ordinal() != b.getCardAt(i).ordinal()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        long h = getHash();
+        return (int) (h ^ (h >>> 32));
+    }
+
+    /** Returns true if every card has been moved to the foundations. */
+    public boolean isWon() {
+        return isWon(piles);
+    }
+
+    /** Returns true if every card among piles is on a foundation. */
+    static boolean isWon(Deck[] piles) {
+        for (int f = FOUNDATION; f < TABLEAU; f++) {
+            if (piles[f].size() < Card.SUIT_SIZE) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     /**
      * Moves a sequence of face-up cards from here to there, so that the face-up
      * cards on that form a sequence in ranks with alternating colors. For
@@ -119,12 +603,24 @@ public class KlondikeModel {
      * Has no effect if the move is illegal.
      */
     public void klondikeMove(Deck here, Deck there) {
+        int n = klondikeCount(here, there);
+        if (n > 0) {
+            here.moveTo(there, n);
+        }
+    }
+
+    /**
+     * Returns the number of cards klondikeMove(here, there) would move, or 0
+     * if the move is illegal.
+     */
+    private int klondikeCount(Deck here, Deck there) {
         Card c = there.getTopCard(); // The card of top of that, if any
-        for (int i = here.size() - 1; (i >= 0) && here.getCardAt(i).isFaceUp(); i--) {
+        for (int i = here.size() - 1; (i >= 0) && here.isFaceUp(i); i--) {
             if (successor(here.getCardAt(i), c)) {
-                here.moveTo(there, here.size() - i);
+                return here.size() - i;
             }
         }
+        return 0;
     }
 
     /**
@@ -134,18 +630,9 @@ public class KlondikeModel {
     public void moveToFoundation(Deck source, int foundationIndex) {
         if ((foundationIndex >= 0) && (foundationIndex < 4)) {
             Card c = source.getTopCard();
-            Deck foundation = foundations[foundationIndex];
             if (c != null && (c.getSuit().ordinal() == foundationIndex)
-              && (((foundation.size() == 0) && (c.getRank() == Rank.ACE))
-              || ((foundation.size() > 0)
-              && (c.getRank().ordinal() == foundation.getTopCard().getRank().ordinal() + 1)))) {
-                source.moveTo(foundation);
-                if (source.size() > 0) {
-                    Card top = source.getTopCard();
-                    if(!top.isFaceUp()) {
-                        top.flipOver();
-                    }
-                }
+              && canMoveToFoundation(c)) {
+                move(source, FOUNDATION + foundationIndex, 1);
             }
         }
     }
@@ -162,29 +649,321 @@ public class KlondikeModel {
             Card destCard = destination.getTopCard();
             if (sourceCard != null &&
               successor(sourceCard, destCard)) {
-                source.moveTo(destination);
+                move(source, TABLEAU + tableauIndex, 1);
             }
         } else {
-            klondikeMove(source, destination);
-            if (source.size() > 0) {
-                Card top = source.getTopCard();
-                if(!top.isFaceUp()) {
-                    top.flipOver();
+            int n = klondikeCount(source, destination);
+            if (n > 0) {
+                move(source, TABLEAU + tableauIndex, n);
+            }
+        }
+    }
+
+    /**
+     * Moves n cards from source to pile destination and turns up the card
+     * left on top of source. The move is recorded for undo if source is one of
+     * this game's piles.
+     */
+    private void move(Deck source, int destination, int n) {
+        for (int p = 0; p < PILE_COUNT; p++) {
+            if (piles[p] == source) {
+                apply(Move.of(p, destination, n));
+                return;
+            }
+        }
+        source.moveTo(piles[destination], n);
+        source.turnTopCardFaceUp();
+    }
+
+    /**
+     * Lists every legal move into moves, replacing its contents: drawing (or
+     * turning the draw pile back over, if the rules allow another pass; see
+     * drawMove), draw pile to foundation or tableau,
+     * tableau to foundation, and tableau to tableau with the number of cards
+     * the move takes. Nothing is allocated.
+     */
+    public void generateMoves(MoveBuffer moves) {
+        generateMoves(piles, rules, recycles, moves);
+    }
+
+    /**
+     * Lists every legal move into moves in the position made up of piles,
+     * played by rules after recycles passes.
+     */
+    static void generateMoves(Deck[] piles, KlondikeRules rules, int recycles, MoveBuffer moves) {
+        moves.clear();
+        Deck drawPile = piles[DRAW_PILE];
+        int draw = drawMove(piles, rules, recycles);
+        if (draw != 0) {
+            moves.add(draw);
+        }
+        Card waste = drawPile.getTopCard();
+        if (waste != null) {
+            if (canMoveToFoundation(piles, waste)) {
+                moves.add(Move.of(DRAW_PILE, FOUNDATION + waste.getSuit().ordinal(), 1));
+            }
+            long targets = STACK_TARGETS[waste.ordinal()];
+            for (int t = TABLEAU; t < PILE_COUNT; t++) {
+                Card top = piles[t].getTopCard();
+                if ((targets >>> (top == null ? EMPTY : top.ordinal()) & 1) != 0) {
+                    moves.add(Move.of(DRAW_PILE, t, 1));
+                }
+            }
+        }
+        for (int s = TABLEAU; s < PILE_COUNT; s++) {
+            Deck source = piles[s];
+            int size = source.size();
+            if (size == 0) {
+                continue;
+            }
+            Card top = source.getTopCard();
+            if (canMoveToFoundation(piles, top)) {
+                moves.add(Move.of(s, FOUNDATION + top.getSuit().ordinal(), 1));
+            }
+            int faceDown = source.getFaceDownCount();
+            for (int d = TABLEAU; d < PILE_COUNT; d++) {
+                if (d == s) {
+                    continue;
+                }
+                Card destTop = piles[d].getTopCard();
+                int target = destTop == null ? EMPTY : destTop.ordinal();
+                for (int i = size - 1; i >= faceDown; i--) {
+                    if ((STACK_TARGETS[source.getCardAt(i).ordinal()] >>> target & 1) != 0) {
+                        moves.add(Move.of(s, d, size - i));
+                        break;
+                    }
+                }
+            }
+        }
+    }
+
+    /** Returns true if c is the next card for the foundation of its suit. */
+    public boolean canMoveToFoundation(Card c) {
+        return canMoveToFoundation(piles, c);
+    }
+
+    /** Returns true if c is the next card for its foundation among piles. */
+    static boolean canMoveToFoundation(Deck[] piles, Card c) {
+        int suit = c.getSuit().ordinal();
+        return NEXT_FOUNDATION_CARD[suit * (Card.SUIT_SIZE + 1) + piles[FOUNDATION + suit].size()]
+          == c.ordinal();
+    }
+
+    /**
+     * Makes a legal move, such as one listed by generateMoves, without
+     * checking it, and records it so that undo() can take it back. Any moves
+     * that could have been redone are forgotten. Returns the move with the
+     * flags of Move added to record any card turned up or draw pile recycled.
+     */
+    public int apply(int move) {
+        int applied = play(move);
+        if (undoCount == history.length) {
+            history = Arrays.copyOf(history, Math.max(16, 2 * history.length));
+        }
+        history[undoCount++] = applied;
+        historySize = undoCount;
+        return applied;
+    }
+
+    /**
+     * Adds a listener to be told of every change that moves, undos and redos
+     * make to the piles from now on. Cards moved into the game from a deck
+     * that is not one of its piles are not reported. Copies of the game
+     * start with no listeners.
+     */
+    public void addListener(KlondikeListener listener) {
+        listeners = Arrays.copyOf(listeners, listeners.length + 1);
+        listeners[listeners.length - 1] = listener;
+    }
+
+    /** Removes a listener added by addListener, if it is still there. */
+    public void removeListener(KlondikeListener listener) {
+        for (int i = 0; i < listeners.length; i++) {
+            if (listeners[i] == listener) {
+                KlondikeListener[] rest = new KlondikeListener[listeners.length - 1];
+                System.arraycopy(listeners, 0, rest, 0, i);
+                System.arraycopy(listeners, i + 1, rest, i, rest.length - i);
+                listeners = rest.length == 0 ? NO_LISTENERS : rest;
+                return;
+            }
+        }
+    }
+
+    /** Returns true if there is a move for undo() to take back. */
+    public boolean canUndo() {
+        return undoCount > 0;
+    }
+
+    /** Returns true if there is an undone move for redo() to make again. */
+    public boolean canRedo() {
+        return undoCount < historySize;
+    }
+
+    /**
+     * Returns the number of moves that led from the start of this game (the
+     * deal, or the position it was copied from) to the current position:
+     * the moves undo() can take back.
+     */
+    public int getMoveCount() {
+        return undoCount;
+    }
+
+    /**
+     * Returns move i of those counted by getMoveCount(), oldest first, with
+     * the flags apply(int) returned for it.
+     *
+     * @throws IndexOutOfBoundsException if there is no such move
+     */
+    public int getMove(int i) {
+        if (i < 0 || i >= undoCount) {
+            throw new IndexOutOfBoundsException("Move " + i + " of " + undoCount);
+        }
+        return history[i];
+    }
+
+    /**
+     * Takes back the most recent move that has not been undone. Has no effect
+     * if there is none. Only the move itself is stored, so this takes time
+     * proportional to the number of cards it moved.
+     */
+    public void undo() {
+        if (undoCount > 0) {
+            revert(history[--undoCount]);
+        }
+    }
+
+    /** Makes the most recently undone move again. Has no effect if there is none. */
+    public void redo() {
+        if (undoCount < historySize) {
+            history[undoCount] = play(history[undoCount]);
+            undoCount++;
+        }
+    }
+
+    /**
+     * Makes move without recording it. Returns the move with flags for any
+     * card turned up or draw pile recycled.
+     */
+    private int play(int move) {
+        int applied = play(piles, move);
+        if (Move.isRecycled(applied)) {
+            recycles++;
+        }
+        if (listeners.length > 0) {
+            firePlayed(applied);
+        }
+        return applied;
+    }
+
+    /** Tells the listeners what play(int) did, given the value it returned. */
+    private void firePlayed(int applied) {
+        int source = Move.source(applied);
+        int destination = Move.destination(applied);
+        boolean recycled = Move.isRecycled(applied);
+        boolean won = destination >= FOUNDATION && destination < TABLEAU
+          && piles[destination].size() == Card.SUIT_SIZE && isWon();
+        for (KlondikeListener listener : listeners) {
+            if (recycled) {
+                listener.recycled(deck.size(), false);
+                continue;
+            }
+            if (source == DECK) {
+                for (int i = 0; i < Move.count(applied); i++) {
+                    listener.moved(DECK, DRAW_PILE, 1);
+                    listener.flipped(DRAW_PILE, true);
+                }
+                continue;
+            }
+            listener.moved(source, destination, Move.count(applied));
+            if (Move.isFlipped(applied)) {
+                listener.flipped(source, true);
+            }
+            if (won) {
+                listener.won();
+            }
+        }
+    }
+
+    /** Tells the listeners what revert(int) did, given the move it took back. */
+    private void fireReverted(int applied) {
+        int source = Move.source(applied);
+        int destination = Move.destination(applied);
+        for (KlondikeListener listener : listeners) {
+            if (Move.isRecycled(applied)) {
+                listener.recycled(drawPile.size(), true);
+            } else if (source == DECK) {
+                for (int i = 0; i < Move.count(applied); i++) {
+                    listener.moved(DRAW_PILE, DECK, 1);
+                    listener.flipped(DECK, false);
                 }
+            } else {
+                if (Move.isFlipped(applied)) {
+                    listener.flipped(source, false);
+                }
+                listener.moved(destination, source, Move.count(applied));
+            }
+        }
+    }
+
+    /**
+     * Makes move among piles as play(int) does. Only the move's source and
+     * destination piles change. Turning the draw pile back over trades the
+     * two piles' arrays and reverses the cards in place, rather than moving
+     * them one by one; see Deck#turnOver(Deck).
+     */
+    static int play(Deck[] piles, int move) {
+        move = Move.withoutFlags(move);
+        int source = Move.source(move);
+        if (source == DECK) {
+            Deck deck = piles[DECK];
+            Deck drawPile = piles[DRAW_PILE];
+            if (deck.size() > 0) {
+                for (int i = Move.count(move); i > 0; i--) {
+                    deck.moveTo(drawPile);
+                    drawPile.turnTopCardFaceUp();
+                }
+                return move;
+            }
+            drawPile.turnOver(deck);
+            return move | Move.RECYCLED;
+        }
+        Deck from = piles[source];
+        from.moveTo(piles[Move.destination(move)], Move.count(move));
+        return from.turnTopCardFaceUp() ? move | Move.FLIPPED : move;
+    }
+
+    /**
+     * Takes back a move, given the value that play(int) returned for it.
+     */
+    private void revert(int applied) {
+        int source = Move.source(applied);
+        if (source != DECK) {
+            Deck from = piles[source];
+            if (Move.isFlipped(applied)) {
+                from.turnFaceDown();
             }
+            piles[Move.destination(applied)].moveTo(from, Move.count(applied));
+        } else if (Move.isRecycled(applied)) {
+            deck.turnOver(drawPile);
+            recycles--;
+        } else {
+            for (int i = Move.count(applied); i > 0; i--) {
+                drawPile.moveTo(deck);
+                deck.turnFaceDown();
+            }
+        }
+        if (listeners.length > 0) {
+            fireReverted(applied);
         }
     }
 
     /**
      * Returns true if a can be placed on top of b, i.e., either a and b are
      * different colors and a's rank is one less than b's, or a is a king and b
-     * is null.
+     * is null. This is a single lookup in a precomputed table.
      */
     public boolean successor(Card a, Card b) {
-        return ((b == null) && (a.getRank() == Rank.KING))
-          || ((b != null)
-          && (a.getRank().ordinal() == b.getRank().ordinal() - 1)
-          && (a.isRed() != b.isRed()));
+        return (STACK_TARGETS[a.ordinal()] >>> (b == null ? EMPTY : b.ordinal()) & 1) != 0;
     }
 
 }
\ No newline at end of file
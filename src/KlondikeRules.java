@@ -0,0 +1,120 @@
+/**
+ * The rules a game of Klondike is played by that vary from table to table:
+ * how many cards each draw turns over, one or three, and how many times the
+ * player may go through the deck. Rules are immutable and compared by value.
+ */
+public final class KlondikeRules {
+
+    /** Draw one card at a time, with no limit on passes through the deck. */
+    public static final KlondikeRules DRAW_ONE = new KlondikeRules(1, 0);
+
+    /** Draw three cards at a time, with no limit on passes through the deck. */
+    public static final KlondikeRules DRAW_THREE = new KlondikeRules(3, 0);
+
+    /** Cards turned over by each draw. */
+    private final int drawCount;
+
+    /** Passes through the deck allowed, or 0 for no limit. */
+    private final int maxPasses;
+
+    private KlondikeRules(int drawCount, int maxPasses) {
+        this.drawCount = drawCount;
+        this.maxPasses = maxPasses;
+    }
+
+    /**
+     * Returns the rules for drawing drawCount cards at a time with up to
+     * maxPasses passes through the deck, or no limit if maxPasses is 0.
+     *
+     * @throws IllegalArgumentException if drawCount is not 1 or 3, or
+     *     maxPasses is negative
+     */
+    public static KlondikeRules of(int drawCount, int maxPasses) {
+        if (drawCount != 1 && drawCount != 3 || maxPasses < 0) {
+            throw new IllegalArgumentException("Bad rules: draw " + drawCount + ", "
+              + maxPasses + " passes");
+        }
+        if (maxPasses == 0) {
+            return drawCount == 1 ? DRAW_ONE : DRAW_THREE;
+        }
+        return new KlondikeRules(drawCount, maxPasses);
+    }
+
+    /**
+     * Returns rules named like "draw3" or "draw1-3passes": the draw count,
+     * then optionally a dash and a pass limit.
+     *
+     * @throws IllegalArgumentException if name is not of that form
+     */
+    public static KlondikeRules of(String name) {
+        try {
+            if (name.startsWith("draw")) {
+                int dash = name.indexOf('-');
+                if (dash < 0) {
+                    return of(Integer.parseInt(name.substring(4)), 0);
+                }
+                if (name.endsWith("passes")) {
+                    return of(Integer.parseInt(name.substring(4, dash)),
+                      Integer.parseInt(name.substring(dash + 1, name.length() - 6)));
+                }
+            }
+        } catch (NumberFormatException ex) {
+            // Reported below
+        }
+        throw new IllegalArgumentException("Unknown rules: " + name);
+    }
+
+    /** Returns the number of cards each draw turns over. */
+    public int getDrawCount() {
+        return drawCount;
+    }
+
+    /** Returns the number of passes through the deck allowed, or 0 for no limit. */
+    public int getMaxPasses() {
+        return maxPasses;
+    }
+
+    /** Returns true if the player may go through the deck any number of times. */
+    public boolean isUnlimited() {
+        return maxPasses == 0;
+    }
+
+    /**
+     * Returns true if the draw pile may be turned back over after it has
+     * been turned over recycles times already.
+     */
+    public boolean canRecycle(int recycles) {
+        return maxPasses == 0 || recycles + 1 < maxPasses;
+    }
+
+    /**
+     * Returns true if drawing alone can bring every card of the deck and
+     * draw pile to the top of the draw pile, and back to where it started:
+     * drawing one card at a time with no limit on passes. Only then are
+     * positions that differ just by how far the deck has been drawn as good
+     * as each other; see KlondikeModel#getCanonicalHash().
+     */
+    public boolean drawsCycleFreely() {
+        return drawCount == 1 && maxPasses == 0;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (!(other instanceof KlondikeRules)) {
+            return false;
+        }
+        KlondikeRules that = (KlondikeRules) other;
+        return drawCount == that.drawCount && maxPasses == that.maxPasses;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * drawCount + maxPasses;
+    }
+
+    /** Returns the name that of(String) reads, such as "draw3" or "draw1-3passes". */
+    @Override
+    public String toString() {
+        return "draw" + drawCount + (maxPasses == 0 ? "" : "-" + maxPasses + "passes");
+    }
+}
@@ -0,0 +1,187 @@
+/**
+ * Immutable Klondike position. Where KlondikeModel changes in place, apply
+ * here returns a new state and leaves this one as it was. The new state
+ * shares the Deck of every pile the move does not touch (11 of the 13) with
+ * its parent, and the decks of the two piles that do change start out
+ * sharing their arrays of cards as well (see Deck(Deck)). A line of play, a
+ * branch of a search or an undo history of states therefore costs memory in
+ * proportion to what changed, not to the whole layout. Nothing about a state
+ * ever changes, so any number of threads may read it.
+ * <p>
+ * of(KlondikeModel) and toModel() convert between the two, for example so
+ * that the GUI can show a state.
+ */
+public final class KlondikeState {
+
+    /** Every pile, as in KlondikeModel#getPile(int); never changed or handed out. */
+    private final Deck[] piles;
+
+    /** Number that reproduces the deal; meaningful only if numbered. */
+    private final long dealNumber;
+
+    /** False if the deal has no number. */
+    private final boolean numbered;
+
+    /** The rules the game is played by. */
+    private final KlondikeRules rules;
+
+    /** Number of times the draw pile has been turned back over. */
+    private final int recycles;
+
+    /** Zobrist hash of the position, as in KlondikeModel#getHash(). */
+    private final long hash;
+
+    private KlondikeState(Deck[] piles, long dealNumber, boolean numbered, KlondikeRules rules,
+      int recycles, long hash) {
+        this.piles = piles;
+        this.dealNumber = dealNumber;
+        this.numbered = numbered;
+        this.rules = rules;
+        this.recycles = recycles;
+        this.hash = hash;
+    }
+
+    /**
+     * Returns the position of model as a state. Only the thread that plays
+     * the model may call this.
+     */
+    public static KlondikeState of(KlondikeModel model) {
+        Deck[] piles = new Deck[KlondikeModel.PILE_COUNT];
+        for (int p = 0; p < piles.length; p++) {
+            piles[p] = new Deck(model.getPile(p));
+        }
+        return new KlondikeState(piles, model.getDealNumber(), model.hasDealNumber(),
+          model.getRules(), model.getRecycles(), model.getHash());
+    }
+
+    /** Returns a new game in this position, with no moves to undo. */
+    public KlondikeModel toModel() {
+        return new KlondikeModel(piles, dealNumber, numbered, rules, recycles);
+    }
+
+    /**
+     * Returns the state after a legal move, such as one listed by
+     * generateMoves, which is not checked.
+     */
+    public KlondikeState apply(int move) {
+        int source = Move.source(move);
+        int destination = Move.destination(move);
+        Deck[] next = piles.clone();
+        next[source] = new Deck(piles[source]);
+        next[destination] = new Deck(piles[destination]);
+        int applied = KlondikeModel.play(next, move);
+        long nextHash = hash
+          ^ KlondikeModel.pileHash(source, piles[source])
+          ^ KlondikeModel.pileHash(destination, piles[destination])
+          ^ KlondikeModel.pileHash(source, next[source])
+          ^ KlondikeModel.pileHash(destination, next[destination]);
+        int nextRecycles = recycles;
+        if (Move.isRecycled(applied)) {
+            nextRecycles++;
+            nextHash ^= KlondikeModel.recycleKey(rules, recycles)
+              ^ KlondikeModel.recycleKey(rules, nextRecycles);
+        }
+        return new KlondikeState(next, dealNumber, numbered, rules, nextRecycles, nextHash);
+    }
+
+    /** Lists every legal move into moves, as KlondikeModel#generateMoves does. */
+    public void generateMoves(MoveBuffer moves) {
+        KlondikeModel.generateMoves(piles, rules, recycles, moves);
+    }
+
+    /** Returns true if c is the next card for the foundation of its suit. */
+    public boolean canMoveToFoundation(Card c) {
+        return KlondikeModel.canMoveToFoundation(piles, c);
+    }
+
+    /** Returns true if every card is on a foundation. */
+    public boolean isWon() {
+        return KlondikeModel.isWon(piles);
+    }
+
+    /** Returns the number of cards in pile. */
+    public int size(int pile) {
+        return piles[pile].size();
+    }
+
+    /** Returns the number of face-down cards at the bottom of pile. */
+    public int getFaceDownCount(int pile) {
+        return piles[pile].getFaceDownCount();
+    }
+
+    /** Returns card n of pile, counting from the bottom. */
+    public Card getCardAt(int pile, int n) {
+        return piles[pile].getCardAt(n);
+    }
+
+    /** Returns the top card of pile, or null if it is empty. */
+    public Card getTopCard(int pile) {
+        return piles[pile].getTopCard();
+    }
+
+    /** Returns the deck of pile, which must not be changed. */
+    Deck pile(int pile) {
+        return piles[pile];
+    }
+
+    /** Returns the number that reproduces this deal. */
+    public long getDealNumber() {
+        return dealNumber;
+    }
+
+    /** Returns true if the deal has a number. */
+    public boolean hasDealNumber() {
+        return numbered;
+    }
+
+    /** Returns the rules the game is played by. */
+    public KlondikeRules getRules() {
+        return rules;
+    }
+
+    /** Returns the number of times the draw pile has been turned back over. */
+    public int getRecycles() {
+        return recycles;
+    }
+
+    /** Returns the Zobrist hash of the position, as KlondikeModel#getHash() does. */
+    public long getHash() {
+        return hash;
+    }
+
+    /** Returns the canonical hash of the position, as KlondikeModel#getCanonicalHash() does. */
+    public long getCanonicalHash() {
+        return KlondikeModel.canonicalHash(piles, rules, recycles);
+    }
+
+    /** Returns a compact encoding of the position, as KlondikeModel#pack() does. */
+    public long[] pack() {
+        long[] out = new long[KlondikeModel.PACKED_LENGTH];
+        KlondikeModel.pack(piles, out);
+        return out;
+    }
+
+    /**
+     * Returns true if other is a state with the same cards, face up or down,
+     * in the same places, played by the same rules with the same passes left.
+     * Deal numbers are not compared.
+     */
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) {
+            return true;
+        }
+        if (!(other instanceof KlondikeState)) {
+            return false;
+        }
+        KlondikeState that = (KlondikeState) other;
+        return hash == that.hash && rules.equals(that.rules)
+          && (rules.isUnlimited() || recycles == that.recycles)
+          && KlondikeModel.samePiles(piles, that.piles);
+    }
+
+    @Override
+    public int hashCode() {
+        return (int) (hash ^ (hash >>> 32));
+    }
+}
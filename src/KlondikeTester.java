@@ -29,13 +29,13 @@ public class KlondikeTester {
         countTest(Suit.HEARTS.equals(new Card(Rank.THREE, Suit.HEARTS).getSuit()));
     }
 
-    public static void testFaceUp() {
-        Card c = new Card(Rank.SEVEN, Suit.SPADES);
-        countTest(c.isFaceUp());
-        c.flipOver();
-        countTest(!c.isFaceUp());
-        c.flipOver();
-        countTest(c.isFaceUp());
+    public static void testOf() {
+        Card c = Card.of(Rank.SEVEN, Suit.SPADES);
+        countTest(c == Card.of(Rank.SEVEN, Suit.SPADES));
+        countTest(c == Card.of(c.ordinal()));
+        countTest(Rank.SEVEN == c.getRank());
+        countTest(Suit.SPADES == c.getSuit());
+        countTest(new Card(Rank.SEVEN, Suit.SPADES).ordinal() == c.ordinal());
     }
 
     public static void testIsRed() {
@@ -66,6 +66,22 @@ public class KlondikeTester {
         countTest(d == deck.getCardAt(1));
     }
 
+    public static void testFaceUp() {
+        Deck deck = new Deck();
+        deck.add(Card.of(Rank.SEVEN, Suit.SPADES));
+        countTest(deck.isFaceUp(0));
+        deck.turnFaceDown();
+        countTest(!deck.isFaceUp(0));
+        deck.add(Card.of(Rank.SIX, Suit.HEARTS));
+        countTest(!deck.isFaceUp(0));
+        countTest(deck.isFaceUp(1));
+        // Only a face-down top card can be turned over
+        countTest(!deck.turnTopCardFaceUp());
+        deck.remove(1);
+        countTest(deck.turnTopCardFaceUp());
+        countTest(deck.isFaceUp(0));
+    }
+
     public static void testGetTop() {
         Deck deck = new Deck();
         countTest(null == deck.getTopCard());
@@ -85,6 +101,8 @@ public class KlondikeTester {
             Card c = deck.getCardAt(i);
             // If a card is seen again, fail
             countTest(!seen[c.getRank().ordinal()][c.getSuit().ordinal()]);
+            // Filling shares the canonical cards
+            countTest(c == Card.of(c.getRank(), c.getSuit()));
             seen[c.getRank().ordinal()][c.getSuit().ordinal()] = true;
         }
     }
@@ -122,6 +140,23 @@ public class KlondikeTester {
             countTest(c != null && before[i].getRank() == c.getRank());
             countTest(c != null && before[i].getSuit() == c.getSuit());
         }
+        // Moving from an empty deck does nothing
+        Deck empty = new Deck();
+        empty.moveTo(d);
+        empty.moveTo(d, 2);
+        countTest(0 == empty.size() && 4 == d.size());
+        // Moving the whole deck empties it
+        d.moveTo(empty, d.size());
+        countTest(0 == d.size() && 4 == empty.size());
+        c = empty.getCardAt(0);
+        countTest(c != null && Rank.NINE == c.getRank());
+        // Cards that do not fit in a full deck are dropped, as add drops them
+        deck.moveTo(empty, 3);
+        countTest(46 == deck.size() && 7 == empty.size());
+        Deck full = new Deck();
+        full.fill();
+        empty.moveTo(full, 2);
+        countTest(5 == empty.size() && 52 == full.size());
     }
 
     public static void testShuffle() {
@@ -200,6 +235,449 @@ public class KlondikeTester {
 
 
 
+    public static void testSeededShuffle() {
+        Deck a = new Deck();
+        a.fill();
+        a.shuffle(new SplitMix64(42));
+        Deck b = new Deck();
+        b.fill();
+        b.shuffle(new SplitMix64(42));
+        boolean same = a.size() == b.size();
+        boolean[] seen = new boolean[Card.COUNT];
+        for (int i = 0; same && i < a.size(); i++) {
+            same = a.getCardAt(i) == b.getCardAt(i);
+            seen[a.getCardAt(i).ordinal()] = true;
+        }
+        countTest(same);
+        for (boolean s : seen) {
+            countTest(s);
+        }
+        // Each seed produces a fresh bound-respecting sequence
+        SplitMix64 rand = new SplitMix64(7);
+        for (int i = 0; i < 1000; i++) {
+            int n = rand.nextInt(52);
+            countTest(n >= 0 && n < 52);
+        }
+    }
+
+    public static void testDealNumber() {
+        KlondikeModel a = new KlondikeModel(12345L);
+        KlondikeModel b = new KlondikeModel(12345L);
+        KlondikeModel c = new KlondikeModel(12346L);
+        countTest(a.hasDealNumber() && 12345L == a.getDealNumber());
+        boolean same = true;
+        boolean differs = false;
+        for (int i = 0; i < 7; i++) {
+            Deck x = a.getTableau(i);
+            Deck y = b.getTableau(i);
+            countTest(i == x.getFaceDownCount() && i + 1 == x.size());
+            for (int j = 0; j < x.size(); j++) {
+                same &= x.getCardAt(j) == y.getCardAt(j);
+                differs |= x.getCardAt(j) != c.getTableau(i).getCardAt(j);
+            }
+        }
+        for (int j = 0; j < a.getDeck().size(); j++) {
+            same &= a.getDeck().getCardAt(j) == b.getDeck().getCardAt(j);
+        }
+        countTest(same);
+        countTest(differs);
+        countTest(!new KlondikeModel(new java.security.SecureRandom()).hasDealNumber());
+    }
+
+    public static void testHashAndPack() {
+        KlondikeModel model = new KlondikeModel(99L);
+        KlondikeModel copy = new KlondikeModel(model);
+        countTest(model.equals(copy) && model.getHash() == copy.getHash());
+        long before = model.getHash();
+        // Drawing and turning the deck back over returns to the same position
+        for (int i = 0; i < 24; i++) {
+            model.drawNextCard();
+            countTest(before != model.getHash());
+        }
+        model.drawNextCard();
+        countTest(before == model.getHash());
+        countTest(model.equals(copy));
+        // The incremental hash matches one computed from scratch
+        model.moveToTableau(model.getTableau(6), 0);
+        KlondikeModel unpacked = new KlondikeModel(model.pack());
+        countTest(model.equals(unpacked));
+        countTest(model.getHash() == unpacked.getHash());
+        countTest(!unpacked.hasDealNumber());
+        for (int p = 0; p < KlondikeModel.PILE_COUNT; p++) {
+            Deck a = model.getPile(p);
+            Deck b = unpacked.getPile(p);
+            countTest(a.size() == b.size() && a.getFaceDownCount() == b.getFaceDownCount());
+        }
+    }
+
+    public static void testCanonicalHash() {
+        KlondikeModel model = new KlondikeModel(99L);
+        // Swapping two columns changes the position but not its canonical form
+        Deck[] piles = new Deck[KlondikeModel.PILE_COUNT];
+        for (int p = 0; p < piles.length; p++) {
+            piles[p] = model.getPile(p);
+        }
+        piles[KlondikeModel.TABLEAU] = model.getPile(KlondikeModel.TABLEAU + 3);
+        piles[KlondikeModel.TABLEAU + 3] = model.getPile(KlondikeModel.TABLEAU);
+        KlondikeModel swapped = new KlondikeModel(piles, 99L, true, KlondikeRules.DRAW_ONE, 0);
+        countTest(!swapped.equals(model) && swapped.getHash() != model.getHash());
+        countTest(swapped.getCanonicalHash() == model.getCanonicalHash());
+        // So does drawing, all the way round the deck
+        long canonical = model.getCanonicalHash();
+        for (int i = 0; i < 24; i++) {
+            long before = model.getHash();
+            model.drawNextCard();
+            countTest(before != model.getHash());
+            countTest(canonical == model.getCanonicalHash());
+            countTest(KlondikeState.of(model).getCanonicalHash() == canonical);
+        }
+        // Any other move changes it
+        MoveBuffer moves = new MoveBuffer();
+        model.generateMoves(moves);
+        for (int i = 0; i < moves.size(); i++) {
+            if (moves.get(i) != Move.DRAW) {
+                model.apply(moves.get(i));
+                countTest(canonical != model.getCanonicalHash());
+                model.undo();
+            }
+        }
+        countTest(canonical == model.getCanonicalHash());
+    }
+
+    public static void testListeners() {
+        KlondikeModel model = new KlondikeModel(99L);
+        StringBuilder events = new StringBuilder();
+        KlondikeListener listener = new KlondikeListener() {
+            @Override
+            public void moved(int source, int destination, int count) {
+                events.append("m").append(source).append(",").append(destination)
+                  .append(",").append(count).append(" ");
+            }
+
+            @Override
+            public void flipped(int pile, boolean faceUp) {
+                events.append(faceUp ? "u" : "d").append(pile).append(" ");
+            }
+
+            @Override
+            public void recycled(int count, boolean undone) {
+                events.append(undone ? "R" : "r").append(count).append(" ");
+            }
+
+            @Override
+            public void won() {
+                events.append("w ");
+            }
+        };
+        model.addListener(listener);
+        model.drawNextCard();
+        countTest(events.toString().equals("m0,1,1 u1 "));
+        events.setLength(0);
+        model.undo();
+        countTest(events.toString().equals("m1,0,1 d0 "));
+        events.setLength(0);
+        model.redo();
+        countTest(events.toString().equals("m0,1,1 u1 "));
+        // Column 7 turns up its next card
+        events.setLength(0);
+        model.apply(Move.of(KlondikeModel.TABLEAU + 6, KlondikeModel.TABLEAU, 1));
+        countTest(events.toString().equals("m12,6,1 u12 "));
+        events.setLength(0);
+        model.undo();
+        countTest(events.toString().equals("d12 m6,12,1 "));
+        // Turning the draw pile over
+        while (model.getDeck().size() > 0) {
+            model.drawNextCard();
+        }
+        events.setLength(0);
+        model.drawNextCard();
+        countTest(events.toString().equals("r24 "));
+        events.setLength(0);
+        model.undo();
+        countTest(events.toString().equals("R24 "));
+        // Copies have no listeners, and a removed listener hears nothing
+        events.setLength(0);
+        model.snapshot().drawNextCard();
+        model.removeListener(listener);
+        model.redo();
+        countTest(events.length() == 0);
+
+        // A game played to a win ends with one won event
+        Solver solver = new Solver();
+        countTest(Solver.Outcome.WON == solver.solve(new KlondikeModel(1)));
+        model = new KlondikeModel(1);
+        int[] wins = new int[1];
+        model.addListener(new KlondikeListener() {
+            @Override
+            public void won() {
+                wins[0]++;
+            }
+        });
+        int[] solution = solver.getSolution();
+        for (int i = 0; i < solution.length; i++) {
+            model.apply(solution[i]);
+            countTest(wins[0] == (i == solution.length - 1 ? 1 : 0));
+        }
+    }
+
+    public static void testRules() {
+        countTest(KlondikeRules.DRAW_THREE == KlondikeRules.of("draw3"));
+        countTest(KlondikeRules.of(1, 3).equals(KlondikeRules.of("draw1-3passes")));
+        countTest("draw3-2passes".equals(KlondikeRules.of(3, 2).toString()));
+        for (String bad : new String[] { "draw2", "draw3-", "draw1--1passes", "three" }) {
+            try {
+                KlondikeRules.of(bad);
+                countTest(false);
+            } catch (IllegalArgumentException ex) {
+                countTest(true);
+            }
+        }
+
+        // Drawing three turns over the deck's top three cards
+        KlondikeModel model = new KlondikeModel(99L, KlondikeRules.DRAW_THREE);
+        countTest(model.getRules() == KlondikeRules.DRAW_THREE);
+        countTest(new KlondikeModel(99L).equals(new KlondikeModel(99L, KlondikeRules.DRAW_ONE)));
+        countTest(!new KlondikeModel(99L).equals(model));
+        KlondikeModel before = model.snapshot();
+        Card third = model.getDeck().getCardAt(20);
+        model.drawNextCard();
+        countTest(20 == model.getDeck().size() && 4 == model.getDrawPile().size());
+        countTest(third == model.getDrawPile().getTopCard());
+        countTest(0 == model.getDrawPile().getFaceDownCount());
+        model.undo();
+        countTest(model.equals(before) && model.getHash() == before.getHash());
+
+        // Turning the draw pile over puts its bottom card on top, face down
+        while (model.getDeck().size() > 0) {
+            model.drawNextCard();
+        }
+        countTest(24 == model.getDrawPile().size());
+        Card bottom = model.getDrawPile().getCardAt(0);
+        KlondikeModel drawn = model.snapshot();
+        KlondikeState state = KlondikeState.of(model);
+        model.drawNextCard();
+        state = state.apply(Move.DRAW);
+        countTest(24 == model.getDeck().size() && 0 == model.getDrawPile().size());
+        countTest(bottom == model.getDeck().getTopCard());
+        countTest(24 == model.getDeck().getFaceDownCount());
+        countTest(1 == model.getRecycles() && 1 == state.getRecycles());
+        countTest(state.getHash() == model.getHash());
+        countTest(state.getCanonicalHash() == model.getCanonicalHash());
+        model.undo();
+        countTest(model.equals(drawn) && model.getHash() == drawn.getHash());
+        countTest(0 == model.getRecycles());
+        // With no limit on passes, going round again comes back to the same position
+        model.redo();
+        while (model.getDeck().size() > 0) {
+            model.drawNextCard();
+        }
+        countTest(model.equals(drawn) && model.getHash() == drawn.getHash());
+        countTest(model.getCanonicalHash() == drawn.getCanonicalHash());
+
+        // With two passes allowed, the draw pile is turned over only once
+        model = new KlondikeModel(99L, KlondikeRules.of(3, 2));
+        MoveBuffer moves = new MoveBuffer();
+        KlondikeModel[] passes = new KlondikeModel[2];
+        for (int pass = 0; pass < 2; pass++) {
+            while (model.getDeck().size() > 0) {
+                model.drawNextCard();
+            }
+            passes[pass] = model.snapshot();
+            model.drawNextCard();
+        }
+        countTest(1 == model.getRecycles());
+        countTest(0 == model.getDeck().size() && model.equals(passes[1]));
+        model.generateMoves(moves);
+        for (int i = 0; i < moves.size(); i++) {
+            countTest(!Move.isDraw(moves.get(i)));
+        }
+        // The same cards with another pass to go are a different position
+        countTest(!passes[0].equals(passes[1]) && samePiles(passes[0], passes[1]));
+        countTest(passes[0].getHash() != passes[1].getHash());
+        countTest(passes[0].getCanonicalHash() != passes[1].getCanonicalHash());
+
+        // The solver plays by the game's rules
+        Solver solver = new Solver();
+        countTest(Solver.Outcome.WON == solver.solve(new KlondikeModel(8L, KlondikeRules.DRAW_THREE)));
+        model = new KlondikeModel(8L, KlondikeRules.DRAW_THREE);
+        for (int move : solver.getSolution()) {
+            model.generateMoves(moves);
+            countTest(moves.contains(Move.withoutFlags(move)));
+            model.apply(move);
+        }
+        countTest(model.isWon());
+        // Forcing safe-looking moves off the draw pile would lose deal 55
+        countTest(Solver.Outcome.WON == solver.solve(new KlondikeModel(55L, KlondikeRules.DRAW_THREE)));
+        model = new KlondikeModel(55L, KlondikeRules.DRAW_THREE);
+        for (int move : solver.getSolution()) {
+            model.generateMoves(moves);
+            countTest(moves.contains(Move.withoutFlags(move)));
+            model.apply(move);
+        }
+        countTest(model.isWon());
+    }
+
+    /** Returns true if a and b have the same cards, face up or down, in every pile. */
+    private static boolean samePiles(KlondikeModel a, KlondikeModel b) {
+        return KlondikeModel.samePiles(piles(a), piles(b));
+    }
+
+    /** Returns the piles of model, indexed as by KlondikeModel#getPile(int). */
+    private static Deck[] piles(KlondikeModel model) {
+        Deck[] piles = new Deck[KlondikeModel.PILE_COUNT];
+        for (int p = 0; p < piles.length; p++) {
+            piles[p] = model.getPile(p);
+        }
+        return piles;
+    }
+
+    public static void testGenerateMoves() {
+        KlondikeModel model = new KlondikeModel(2024L);
+        MoveBuffer moves = new MoveBuffer();
+        SplitMix64 rand = new SplitMix64(1);
+        for (int step = 0; step < 200; step++) {
+            model.generateMoves(moves);
+            countTest(moves.size() > 0);
+            long[] before = model.pack();
+            for (int i = 0; i < moves.size(); i++) {
+                int move = moves.get(i);
+                // Each move does what the model's own rules do
+                KlondikeModel expected = new KlondikeModel(model);
+                if (Move.source(move) == KlondikeModel.DECK) {
+                    expected.drawNextCard();
+                } else if (Move.destination(move) < KlondikeModel.TABLEAU) {
+                    expected.moveToFoundation(expected.getPile(Move.source(move)),
+                      Move.destination(move) - KlondikeModel.FOUNDATION);
+                } else {
+                    expected.moveToTableau(expected.getPile(Move.source(move)),
+                      Move.destination(move) - KlondikeModel.TABLEAU);
+                }
+                model.apply(move);
+                countTest(expected.equals(model));
+                countTest(expected.getHash() == model.getHash());
+                // ...and undo puts everything back
+                model.undo();
+                countTest(java.util.Arrays.equals(before, model.pack()));
+            }
+            model.apply(moves.get(rand.nextInt(moves.size())));
+        }
+    }
+
+    public static void testUndoRedo() {
+        KlondikeModel model = new KlondikeModel(31L);
+        countTest(!model.canUndo() && !model.canRedo());
+        long[] start = model.pack();
+        // Play through the deck twice, making every legal tableau move
+        int moves = 0;
+        for (int i = 0; i < 50; i++) {
+            model.drawNextCard();
+            moves++;
+            for (int s = 0; s < 7; s++) {
+                for (int d = 0; d < 7; d++) {
+                    int before = model.getTableau(d).size();
+                    model.moveToTableau(model.getTableau(s), d);
+                    if (model.getTableau(d).size() != before) {
+                        moves++;
+                    }
+                }
+            }
+        }
+        long[] end = model.pack();
+        for (int i = 0; i < moves; i++) {
+            countTest(model.canUndo());
+            model.undo();
+        }
+        countTest(!model.canUndo());
+        countTest(java.util.Arrays.equals(start, model.pack()));
+        for (int i = 0; i < moves; i++) {
+            countTest(model.canRedo());
+            model.redo();
+        }
+        countTest(!model.canRedo());
+        countTest(java.util.Arrays.equals(end, model.pack()));
+        // A new move forgets the moves that could have been redone
+        model.undo();
+        model.drawNextCard();
+        countTest(!model.canRedo());
+    }
+
+    public static void testSnapshot() throws InterruptedException {
+        KlondikeModel model = new KlondikeModel(6);
+        MoveBuffer moves = new MoveBuffer();
+        SplitMix64 rand = new SplitMix64(6);
+        for (int i = 0; i < 200; i++) {
+            KlondikeModel snapshot = model.snapshot();
+            long[] packed = model.pack();
+            countTest(snapshot.equals(model));
+            countTest(snapshot.getHash() == model.getHash());
+            // Moves in either game leave the other alone
+            model.generateMoves(moves);
+            model.apply(moves.get(rand.nextInt(moves.size())));
+            countTest(Arrays.equals(packed, snapshot.pack()));
+            snapshot.generateMoves(moves);
+            long[] after = model.pack();
+            snapshot.apply(moves.get(rand.nextInt(moves.size())));
+            countTest(Arrays.equals(after, model.pack()));
+        }
+
+        // A snapshot read by another thread while the game goes on
+        KlondikeModel snapshot = model.snapshot();
+        long[] packed = model.pack();
+        long[] seen = new long[KlondikeModel.PACKED_LENGTH];
+        Thread reader = new Thread(() -> {
+            for (int i = 0; i < 1000; i++) {
+                snapshot.pack(seen);
+            }
+        });
+        reader.start();
+        for (int i = 0; i < 1000; i++) {
+            model.generateMoves(moves);
+            model.apply(moves.get(rand.nextInt(moves.size())));
+        }
+        reader.join();
+        countTest(Arrays.equals(packed, seen));
+    }
+
+    public static void testKlondikeState() {
+        KlondikeModel model = new KlondikeModel(7);
+        KlondikeState state = KlondikeState.of(model);
+        countTest(state.getHash() == model.getHash());
+        countTest(7 == state.getDealNumber() && state.hasDealNumber());
+        MoveBuffer moves = new MoveBuffer();
+        MoveBuffer stateMoves = new MoveBuffer();
+        SplitMix64 rand = new SplitMix64(7);
+        for (int i = 0; i < 300 && !model.isWon(); i++) {
+            model.generateMoves(moves);
+            state.generateMoves(stateMoves);
+            countTest(moves.size() == stateMoves.size());
+            int move = moves.get(rand.nextInt(moves.size()));
+            long[] before = state.pack();
+            KlondikeState next = state.apply(move);
+            model.apply(move);
+            // The parent is unchanged, and shares every pile the move leaves alone
+            countTest(Arrays.equals(before, state.pack()));
+            int shared = 0;
+            for (int p = 0; p < KlondikeModel.PILE_COUNT; p++) {
+                if (next.pile(p) == state.pile(p)) {
+                    shared++;
+                }
+            }
+            countTest(shared >= KlondikeModel.PILE_COUNT - 2);
+            countTest(Arrays.equals(model.pack(), next.pack()));
+            countTest(model.getHash() == next.getHash());
+            state = next;
+        }
+        KlondikeModel copy = state.toModel();
+        countTest(copy.equals(model));
+        countTest(copy.getDealNumber() == 7);
+        countTest(KlondikeState.of(copy).equals(state));
+        // The model made from a state changes without changing the state
+        long[] packed = state.pack();
+        copy.generateMoves(moves);
+        copy.apply(moves.get(0));
+        countTest(Arrays.equals(packed, state.pack()));
+    }
+
     public static void testSuccessor() {
         KlondikeModel model = null;
         try { model = new KlondikeModel(); } catch (Exception ignore) {}
@@ -221,21 +699,17 @@ public class KlondikeTester {
         countTest(null != model);
         Deck deck = new Deck();
         // Deck is the source pile
-        Card c = new Card(Rank.TEN, Suit.SPADES);
-        c.flipOver();
-        deck.add(c);
-        c = new Card(Rank.JACK, Suit.HEARTS);
-        c.flipOver();
-        deck.add(c);
+        deck.add(new Card(Rank.TEN, Suit.SPADES));
+        deck.add(new Card(Rank.JACK, Suit.HEARTS));
+        deck.turnFaceDown();
         deck.add(new Card(Rank.SIX, Suit.HEARTS));
         deck.add(new Card(Rank.FIVE, Suit.SPADES));
         deck.add(new Card(Rank.FOUR, Suit.DIAMONDS));
         deck.add(new Card(Rank.THREE, Suit.CLUBS));
         // Destination is the other pile
         Deck destination = new Deck();
-        c = new Card(Rank.KING, Suit.HEARTS);
-        c.flipOver();
-        destination.add(c);
+        destination.add(new Card(Rank.KING, Suit.HEARTS));
+        destination.turnFaceDown();
         destination.add(new Card(Rank.EIGHT, Suit.DIAMONDS));
         destination.add(new Card(Rank.SEVEN, Suit.SPADES));
         destination.add(new Card(Rank.SIX, Suit.DIAMONDS));
@@ -265,8 +739,7 @@ public class KlondikeTester {
         if(null != model) model.klondikeMove(deck, destination);
         countTest(1 == deck.size());
         // ...but a king can
-        Card c = deck.getCardAt(0);
-        if(c != null && c.isFaceUp()) c.flipOver();
+        deck.turnFaceDown();
         deck.add(new Card(Rank.KING, Suit.HEARTS));
         if(null != model) model.klondikeMove(deck, destination);
         countTest(1 == deck.size());
@@ -295,8 +768,7 @@ public class KlondikeTester {
         countTest(null != model);
         Deck source = new Deck();
         source.add(new Card(Rank.SEVEN, Suit.SPADES));
-        Card c = source.getTopCard();
-        if(c != null && c.isFaceUp()) c.flipOver();
+        source.turnFaceDown();
         source.add(new Card(Rank.TWO, Suit.HEARTS));
         source.add(new Card(Rank.ACE, Suit.HEARTS));
         // This illegal move should have no effect
@@ -308,7 +780,7 @@ public class KlondikeTester {
         if(null != model) model.moveToFoundation(source, Suit.SPADES.ordinal());
         countTest(1 == source.size());
         Card d = source.getTopCard();
-        countTest(d != null && d.isFaceUp());
+        countTest(d != null && source.isFaceUp(source.size() - 1));
     }
 
     public static void testMoveToTableau() {
@@ -336,13 +808,349 @@ public class KlondikeTester {
         countTest(null != model && 6 == model.getTableau(5).size());
     }
 
+    public static void testSolver() {
+        Solver solver = new Solver();
+        KlondikeModel model = new KlondikeModel(4L);
+        countTest(Solver.Outcome.WON == solver.solve(model));
+        countTest(solver.getNodes() > 0);
+        // Solving leaves the model alone
+        countTest(24 == model.getDeck().size() + model.getDrawPile().size());
+        // Replaying the solution wins the game
+        for (int move : solver.getSolution()) {
+            model.apply(move);
+        }
+        countTest(model.isWon());
+        // A search that is cut short proves nothing
+        countTest(Solver.Outcome.UNKNOWN == new Solver(1).solve(new KlondikeModel(4L)));
+    }
+
+    public static void testTranspositionTable() {
+        TranspositionTable table = new TranspositionTable(TranspositionTable.MIN_BYTES);
+        countTest(table.capacity() == TranspositionTable.MIN_BYTES / 16);
+        table.newSearch();
+        SplitMix64 random = new SplitMix64(1);
+        long[] hashes = new long[1000];
+        for (int i = 0; i < hashes.length; i++) {
+            hashes[i] = random.nextLong();
+            countTest(table.add(hashes[i], i));
+        }
+        // Far fewer positions than buckets, so none has been replaced
+        for (int i = 0; i < hashes.length; i++) {
+            countTest(!table.add(hashes[i], 0));
+        }
+        countTest(table.getHitRate() == 0.5);
+        countTest(table.getFillRatio() == (double) hashes.length / table.capacity());
+
+        // A new search forgets every position
+        table.newSearch();
+        countTest(table.getHitRate() == 0 && table.getFillRatio() == 0);
+        for (long hash : hashes) {
+            countTest(table.add(hash, 0));
+        }
+
+        // Solvers sharing a table find the same wins
+        Solver solver = new Solver(Solver.DEFAULT_MAX_NODES, table);
+        for (long deal = 1; deal <= 3; deal++) {
+            countTest(Solver.Outcome.WON == solver.solve(new KlondikeModel(deal)));
+            KlondikeModel model = new KlondikeModel(deal);
+            for (int move : solver.getSolution()) {
+                model.apply(move);
+            }
+            countTest(model.isWon());
+            countTest(solver.getTable().getHitRate() > 0);
+        }
+    }
+
+    public static void testParallelSolver() {
+        java.util.concurrent.ForkJoinPool pool = new java.util.concurrent.ForkJoinPool(4);
+        ParallelSolver solver = new ParallelSolver(pool, Solver.DEFAULT_MAX_NODES);
+        for (long deal = 1; deal <= 5; deal++) {
+            countTest(Solver.Outcome.WON == solver.solve(new KlondikeModel(deal)));
+            KlondikeModel model = new KlondikeModel(deal);
+            for (int move : solver.getSolution()) {
+                model.apply(move);
+            }
+            countTest(model.isWon());
+        }
+        pool.shutdown();
+    }
+
+    public static void testSimulator() {
+        java.util.concurrent.ForkJoinPool pool = new java.util.concurrent.ForkJoinPool(2);
+        Simulator.Result result = new Simulator(pool, () -> new RandomStrategy(1), 100).run(1, 600);
+        countTest(600 == result.getGames());
+        countTest(result.getWins() <= result.getGames());
+        countTest(result.getAverageMoves() > 0);
+        result = new Simulator(pool, () -> model -> Strategy.NO_MOVE, 100).run(1, 10);
+        countTest(10 == result.getGames());
+        countTest(0 == result.getWins());
+        countTest(0 == result.getAverageMoves());
+        pool.shutdown();
+
+        // Playing a solution wins the game
+        Solver solver = new Solver();
+        solver.solve(new KlondikeModel(1));
+        int[] solution = solver.getSolution();
+        int[] next = { 0 };
+        KlondikeModel model = new KlondikeModel(1);
+        countTest(solution.length == Simulator.play(model, m -> solution[next[0]++], solution.length));
+        countTest(model.isWon());
+    }
+
+    public static void testStrategies() {
+        countTest(Strategy.of("random", 1) instanceof RandomStrategy);
+        countTest(Strategy.of("greedy", 1) instanceof GreedyStrategy);
+        countTest(Strategy.of("lookahead-3", 1) instanceof LookaheadStrategy);
+        try {
+            Strategy.of("lookahead-x", 1);
+            countTest(false);
+        } catch (IllegalArgumentException e) {
+            countTest(true);
+        }
+
+        // Every move chosen is legal, and choosing leaves the position alone
+        MoveBuffer moves = new MoveBuffer();
+        for (String name : new String[] { "random", "greedy", "lookahead-1", "lookahead-2" }) {
+            Strategy strategy = Strategy.of(name, 1);
+            KlondikeModel model = new KlondikeModel(3);
+            for (int i = 0; i < 100 && !model.isWon(); i++) {
+                long[] packed = model.pack();
+                int move = strategy.chooseMove(model);
+                countTest(Arrays.equals(packed, model.pack()));
+                model.generateMoves(moves);
+                countTest(moves.contains(move));
+                model.apply(move);
+            }
+        }
+
+        // Greedy plays to the foundation first
+        KlondikeModel model = new KlondikeModel(1);
+        Deck tableau = model.getTableau(0);
+        tableau.remove(tableau.size());
+        tableau.add(Card.of(Rank.ACE, Suit.SPADES));
+        int move = new GreedyStrategy().chooseMove(model);
+        countTest(Move.destination(move) >= KlondikeModel.FOUNDATION
+          && Move.destination(move) < KlondikeModel.TABLEAU);
+    }
+
+    public static void testMctsStrategy() {
+        MoveBuffer moves = new MoveBuffer();
+        MctsStrategy strategy = new MctsStrategy(100, 0, 1);
+        KlondikeModel model = new KlondikeModel(2);
+        for (int i = 0; i < 10; i++) {
+            long[] packed = model.pack();
+            int move = strategy.chooseMove(model);
+            countTest(Arrays.equals(packed, model.pack()));
+            countTest(100 == strategy.getPlayouts());
+            model.generateMoves(moves);
+            countTest(moves.contains(move));
+            model.apply(move);
+        }
+
+        // Several trees in a pool, limited by time
+        java.util.concurrent.ForkJoinPool pool = new java.util.concurrent.ForkJoinPool(2);
+        strategy = new MctsStrategy(pool, 2, 0, 20, 1);
+        int move = strategy.chooseMove(model);
+        countTest(strategy.getPlayouts() > 0);
+        model.generateMoves(moves);
+        countTest(moves.contains(move));
+        // Interrupting the caller stops the trees in the pool too
+        strategy = new MctsStrategy(pool, 2, 0, 60_000, 1);
+        long start = System.nanoTime();
+        Thread.currentThread().interrupt();
+        strategy.chooseMove(model);
+        countTest(Thread.interrupted());
+        countTest(System.nanoTime() - start < 10_000_000_000L);
+        pool.shutdown();
+
+        try {
+            new MctsStrategy(0, 0, 1);
+            countTest(false);
+        } catch (IllegalArgumentException e) {
+            countTest(true);
+        }
+        countTest(Strategy.of("mcts-10", 1) instanceof MctsStrategy);
+    }
+
+    public static void testDifficultyRater() throws java.io.IOException {
+        java.util.concurrent.ForkJoinPool pool = new java.util.concurrent.ForkJoinPool(2);
+        DifficultyRater rater = new DifficultyRater(pool, 4, 20_000);
+        DifficultyRater.Rating[] ratings = rater.rate(1, 12);
+        pool.shutdown();
+        for (int i = 0; i < ratings.length; i++) {
+            DifficultyRater.Rating r = ratings[i];
+            countTest(i + 1 == r.getDeal());
+            countTest(r.getScore() >= 0 && r.getScore() <= 1);
+            countTest(r.isSolved() == (r.getLevel() != DifficultyRater.Level.UNSOLVED));
+            countTest(r.isSolved() == (r.getFirstSolutionLength() > 0));
+        }
+        // Ratings do not depend on which thread made them
+        DifficultyRater.Rating r = rater.rate(5);
+        countTest(r.getNodes() == ratings[4].getNodes());
+        countTest(r.getPlayoutWinRate() == ratings[4].getPlayoutWinRate());
+
+        java.nio.file.Path file = java.nio.file.Files.createTempFile("ratings", ".bin");
+        DifficultyRater.write(file, ratings);
+        DifficultyRater.Rating[] read = DifficultyRater.read(file);
+        java.nio.file.Files.delete(file);
+        countTest(ratings.length == read.length);
+        for (int i = 0; i < ratings.length; i++) {
+            countTest(ratings[i].toString().equals(read[i].toString()));
+        }
+    }
+
+    public static void testDealIndex() throws java.io.IOException {
+        java.util.concurrent.ForkJoinPool pool = new java.util.concurrent.ForkJoinPool(2);
+        DifficultyRater.Rating[] ratings = new DifficultyRater(pool, 4, 20_000).rate(1, 12);
+        pool.shutdown();
+        java.nio.file.Path file = java.nio.file.Files.createTempFile("deals", ".idx");
+        DealIndex.write(file, ratings);
+        DealIndex index = DealIndex.open(file);
+
+        int solved = 0;
+        for (DifficultyRater.Rating r : ratings) {
+            if (r.isSolved()) {
+                solved++;
+            }
+        }
+        countTest(solved == index.size());
+        countTest(index.size() == index.size(DifficultyRater.Level.EASY)
+          + index.size(DifficultyRater.Level.MEDIUM) + index.size(DifficultyRater.Level.HARD));
+        countTest(0 == index.size(DifficultyRater.Level.UNSOLVED));
+        for (int i = 0; i < index.size(); i++) {
+            DifficultyRater.Rating r = ratings[(int) index.getDeal(i) - 1];
+            countTest(r.getLevel() == index.getLevel(i));
+            countTest(r.getFirstSolutionLength() == index.getMoveCount(i));
+            countTest(r.getNodes() == index.getNodes(i));
+            countTest(Math.abs(r.getScore() - index.getScore(i)) < 1e-4);
+        }
+        for (int i = 0; i < 20; i++) {
+            KlondikeModel model = new KlondikeModel(index);
+            countTest(ratings[(int) model.getDealNumber() - 1].isSolved());
+        }
+        try {
+            index.getDeal(index.size());
+            countTest(false);
+        } catch (IndexOutOfBoundsException e) {
+            countTest(true);
+        }
+        java.nio.file.Files.delete(file);
+    }
+
+    public static void testGameRecorder() throws java.io.IOException {
+        java.nio.file.Path file = java.nio.file.Files.createTempFile("games", ".rec");
+        KlondikeModel[] games = new KlondikeModel[20];
+        KlondikeModel[] halfway = new KlondikeModel[games.length];
+        try (GameRecorder recorder = GameRecorder.create(file)) {
+            for (int i = 0; i < games.length; i++) {
+                KlondikeRules rules = i % 2 == 0 ? KlondikeRules.DRAW_ONE : KlondikeRules.of(3, 2);
+                games[i] = new KlondikeModel(100 + i, rules);
+                Simulator.play(games[i], new RandomStrategy(i), 100);
+                // Undone moves are left out
+                games[i].undo();
+                halfway[i] = new KlondikeModel(100 + i, rules);
+                for (int m = 0; m < games[i].getMoveCount() / 2; m++) {
+                    halfway[i].apply(games[i].getMove(m));
+                }
+                recorder.record(games[i]);
+            }
+            countTest(games.length == recorder.getGames());
+            // Only games that can be dealt again from their start can be recorded
+            KlondikeModel[] unrecordable = {
+                new KlondikeModel(new java.security.SecureRandom()), halfway[0].snapshot()
+            };
+            unrecordable[1].drawNextCard();
+            for (KlondikeModel game : unrecordable) {
+                try {
+                    recorder.record(game);
+                    countTest(false);
+                } catch (IllegalArgumentException ex) {
+                    countTest(true);
+                }
+            }
+        }
+
+        GameReplayer replayer = GameReplayer.open(file);
+        for (KlondikeModel game : games) {
+            countTest(replayer.next());
+            countTest(game.getDealNumber() == replayer.getDealNumber());
+            countTest(game.getRules().equals(replayer.getRules()));
+            countTest(game.getMoveCount() == replayer.getMoveCount());
+            KlondikeModel replayed = replayer.replay();
+            countTest(game.equals(replayed) && game.getHash() == replayed.getHash());
+            int half = game.getMoveCount() / 2;
+            KlondikeModel partway = replayer.replay(half);
+            countTest(half == partway.getMoveCount());
+            countTest(partway.equals(halfway[(int) game.getDealNumber() - 100]));
+        }
+        countTest(!replayer.next());
+
+        // A cut-off archive is reported, not misread
+        byte[] bytes = java.nio.file.Files.readAllBytes(file);
+        replayer = new GameReplayer(java.nio.ByteBuffer.wrap(bytes, 0, bytes.length - 1));
+        try {
+            while (replayer.next()) {
+                replayer.replay();
+            }
+            countTest(false);
+        } catch (java.io.IOException ex) {
+            countTest(true);
+        }
+        // So is a game whose moves run out before its move count
+        java.nio.ByteBuffer shortGame = java.nio.ByteBuffer.wrap(bytes.clone());
+        shortGame.putInt(6 + 17, 0);
+        replayer = new GameReplayer(shortGame);
+        countTest(replayer.next() && replayer.getMoveCount() > 0);
+        try {
+            replayer.replay();
+            countTest(false);
+        } catch (java.io.IOException ex) {
+            countTest(true);
+        }
+        bytes[0]++;
+        try {
+            new GameReplayer(java.nio.ByteBuffer.wrap(bytes));
+            countTest(false);
+        } catch (java.io.IOException ex) {
+            countTest(true);
+        }
+        java.nio.file.Files.delete(file);
+    }
+
+    public static void testHintEngine() throws InterruptedException {
+        HintEngine engine = new HintEngine(50);
+        KlondikeModel model = new KlondikeModel(4);
+        java.util.concurrent.atomic.AtomicInteger stale = new java.util.concurrent.atomic.AtomicInteger();
+        java.util.concurrent.atomic.AtomicInteger hint = new java.util.concurrent.atomic.AtomicInteger();
+        java.util.concurrent.CountDownLatch done = new java.util.concurrent.CountDownLatch(1);
+        engine.request(model, move -> stale.incrementAndGet());
+        engine.request(model, move -> {
+            hint.set(move);
+            done.countDown();
+        });
+        // The model may change as soon as request returns
+        long[] packed = model.pack();
+        model.drawNextCard();
+        countTest(done.await(5, java.util.concurrent.TimeUnit.SECONDS));
+        countTest(0 == stale.get());
+        MoveBuffer moves = new MoveBuffer();
+        new KlondikeModel(packed).generateMoves(moves);
+        countTest(moves.contains(hint.get()));
+
+        // A cancelled request delivers nothing
+        java.util.concurrent.CountDownLatch cancelled = new java.util.concurrent.CountDownLatch(1);
+        engine.request(model, move -> cancelled.countDown());
+        engine.cancel();
+        countTest(!cancelled.await(300, java.util.concurrent.TimeUnit.MILLISECONDS));
+        engine.shutdown();
+    }
+
     public static void testImageFilename() {
         Card c = new Card(Rank.THREE, Suit.HEARTS);
         String faceName = "card-images" + java.io.File.separator + "47.png";
-        countTest(faceName.equals(Klondike.imageFilename(c)));
-        c.flipOver();
+        countTest(faceName.equals(Klondike.imageFilename(c, true)));
         String backName = "card-images" + java.io.File.separator + "b2fv.png";
-        countTest(backName.equals(Klondike.imageFilename(c)));
+        countTest(backName.equals(Klondike.imageFilename(c, false)));
 
         // Make sure we can find the files.
         // If we can't, the card images aren't where we expect them to be.
@@ -352,6 +1160,44 @@ public class KlondikeTester {
         countTest(java.nio.file.Files.isReadable(path));
     }
 
+    public static void testCardAtlas() {
+        try {
+            CardAtlas atlas = CardAtlas.load(Klondike.CARD_WIDTH, Klondike.CARD_HEIGHT);
+            countTest(atlas.getWidth() == Klondike.CARD_WIDTH);
+            countTest(atlas.getHeight() == Klondike.CARD_HEIGHT);
+            java.awt.image.BufferedImage back = atlas.getImage(Card.of(0), false);
+            for (int i = 0; i < Card.COUNT; i++) {
+                Card c = Card.of(i);
+                countTest(CardAtlas.sprite(c, true) == i);
+                countTest(CardAtlas.sprite(c, false) == CardAtlas.BACK);
+                java.awt.image.BufferedImage face = atlas.getImage(c, true);
+                countTest(face.getWidth() == Klondike.CARD_WIDTH
+                  && face.getHeight() == Klondike.CARD_HEIGHT);
+                // Each face is drawn from its own file, so its center differs from the back's
+                countTest(face.getRGB(36, 48) != back.getRGB(36, 48)
+                  || face.getRGB(20, 30) != back.getRGB(20, 30));
+            }
+            // Drawing a card copies its sprite unchanged
+            java.awt.image.BufferedImage canvas = new java.awt.image.BufferedImage(
+              100, 100, java.awt.image.BufferedImage.TYPE_INT_ARGB_PRE);
+            java.awt.Graphics g = canvas.createGraphics();
+            Card c = Card.of(Rank.THREE, Suit.HEARTS);
+            atlas.draw(g, c, true, 10, 2);
+            g.dispose();
+            java.awt.image.BufferedImage face = atlas.getImage(c, true);
+            boolean same = true;
+            for (int y = 0; y < Klondike.CARD_HEIGHT; y += 7) {
+                for (int x = 0; x < Klondike.CARD_WIDTH; x += 7) {
+                    same &= canvas.getRGB(x + 10, y + 2) == face.getRGB(x, y);
+                }
+            }
+            countTest(same);
+        } catch (java.io.IOException ex) {
+            ex.printStackTrace();
+            countTest(false);
+        }
+    }
+
     public static void main(String[] args) {
         int correct = 0;
         int total = 0;
@@ -374,8 +1220,8 @@ public class KlondikeTester {
         System.out.println("  Passed " + correctTests + " of " + totalTests);
 
         clearCounts();
-        System.out.println("testFaceUp");
-        testFaceUp();
+        System.out.println("testOf");
+        testOf();
         correct+= correctTests;
         total += totalTests;
         System.out.println("  Passed " + correctTests + " of " + totalTests);
@@ -404,6 +1250,13 @@ public class KlondikeTester {
         total += totalTests;
         System.out.println("  Passed " + correctTests + " of " + totalTests);
 
+        clearCounts();
+        System.out.println("testFaceUp");
+        testFaceUp();
+        correct+= correctTests;
+        total += totalTests;
+        System.out.println("  Passed " + correctTests + " of " + totalTests);
+
         clearCounts();
         System.out.println("testGetTop");
         testGetTop();
@@ -439,10 +1292,85 @@ public class KlondikeTester {
         total += totalTests;
         System.out.println("  Passed " + correctTests + " of " + totalTests);
 
+        clearCounts();
+        System.out.println("testSeededShuffle");
+        testSeededShuffle();
+        correct+= correctTests;
+        total += totalTests;
+        System.out.println("  Passed " + correctTests + " of " + totalTests);
+
 
         System.out.println("=========== TESTING GAME INTERNALS ===========");
         System.out.println("---------- testing KlondikeModel ----------");
 
+        clearCounts();
+        System.out.println("testDealNumber");
+        testDealNumber();
+        correct+= correctTests;
+        total += totalTests;
+        System.out.println("  Passed " + correctTests + " of " + totalTests);
+
+        clearCounts();
+        System.out.println("testHashAndPack");
+        testHashAndPack();
+        correct+= correctTests;
+        total += totalTests;
+        System.out.println("  Passed " + correctTests + " of " + totalTests);
+
+        clearCounts();
+        System.out.println("testCanonicalHash");
+        testCanonicalHash();
+        correct+= correctTests;
+        total += totalTests;
+        System.out.println("  Passed " + correctTests + " of " + totalTests);
+
+        clearCounts();
+        System.out.println("testListeners");
+        testListeners();
+        correct+= correctTests;
+        total += totalTests;
+        System.out.println("  Passed " + correctTests + " of " + totalTests);
+
+        clearCounts();
+        System.out.println("testRules");
+        testRules();
+        correct+= correctTests;
+        total += totalTests;
+        System.out.println("  Passed " + correctTests + " of " + totalTests);
+
+        clearCounts();
+        System.out.println("testGenerateMoves");
+        testGenerateMoves();
+        correct+= correctTests;
+        total += totalTests;
+        System.out.println("  Passed " + correctTests + " of " + totalTests);
+
+        clearCounts();
+        System.out.println("testUndoRedo");
+        testUndoRedo();
+        correct+= correctTests;
+        total += totalTests;
+        System.out.println("  Passed " + correctTests + " of " + totalTests);
+
+        clearCounts();
+        System.out.println("testSnapshot");
+        try {
+            testSnapshot();
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+            countTest(false);
+        }
+        correct+= correctTests;
+        total += totalTests;
+        System.out.println("  Passed " + correctTests + " of " + totalTests);
+
+        clearCounts();
+        System.out.println("testKlondikeState");
+        testKlondikeState();
+        correct+= correctTests;
+        total += totalTests;
+        System.out.println("  Passed " + correctTests + " of " + totalTests);
+
         clearCounts();
         System.out.println("testSuccessor");
         testSuccessor();
@@ -486,6 +1414,98 @@ public class KlondikeTester {
         System.out.println("  Passed " + correctTests + " of " + totalTests);
 
 
+        System.out.println("---------- testing Solver ----------");
+
+        clearCounts();
+        System.out.println("testSolver");
+        testSolver();
+        correct+= correctTests;
+        total += totalTests;
+        System.out.println("  Passed " + correctTests + " of " + totalTests);
+
+        clearCounts();
+        System.out.println("testTranspositionTable");
+        testTranspositionTable();
+        correct+= correctTests;
+        total += totalTests;
+        System.out.println("  Passed " + correctTests + " of " + totalTests);
+
+        clearCounts();
+        System.out.println("testParallelSolver");
+        testParallelSolver();
+        correct+= correctTests;
+        total += totalTests;
+        System.out.println("  Passed " + correctTests + " of " + totalTests);
+
+        clearCounts();
+        System.out.println("testSimulator");
+        testSimulator();
+        correct+= correctTests;
+        total += totalTests;
+        System.out.println("  Passed " + correctTests + " of " + totalTests);
+
+        clearCounts();
+        System.out.println("testStrategies");
+        testStrategies();
+        correct+= correctTests;
+        total += totalTests;
+        System.out.println("  Passed " + correctTests + " of " + totalTests);
+
+        clearCounts();
+        System.out.println("testMctsStrategy");
+        testMctsStrategy();
+        correct+= correctTests;
+        total += totalTests;
+        System.out.println("  Passed " + correctTests + " of " + totalTests);
+
+        clearCounts();
+        System.out.println("testDifficultyRater");
+        try {
+            testDifficultyRater();
+        } catch (java.io.IOException e) {
+            e.printStackTrace();
+            countTest(false);
+        }
+        correct+= correctTests;
+        total += totalTests;
+        System.out.println("  Passed " + correctTests + " of " + totalTests);
+
+        clearCounts();
+        System.out.println("testDealIndex");
+        try {
+            testDealIndex();
+        } catch (java.io.IOException e) {
+            e.printStackTrace();
+            countTest(false);
+        }
+        correct+= correctTests;
+        total += totalTests;
+        System.out.println("  Passed " + correctTests + " of " + totalTests);
+
+        clearCounts();
+        System.out.println("testGameRecorder");
+        try {
+            testGameRecorder();
+        } catch (java.io.IOException e) {
+            e.printStackTrace();
+            countTest(false);
+        }
+        correct+= correctTests;
+        total += totalTests;
+        System.out.println("  Passed " + correctTests + " of " + totalTests);
+
+        clearCounts();
+        System.out.println("testHintEngine");
+        try {
+            testHintEngine();
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+            countTest(false);
+        }
+        correct+= correctTests;
+        total += totalTests;
+        System.out.println("  Passed " + correctTests + " of " + totalTests);
+
         System.out.println("---------- testing Klondike ----------");
 
         clearCounts();
@@ -495,6 +1515,13 @@ public class KlondikeTester {
         total += totalTests;
         System.out.println("  Passed " + correctTests + " of " + totalTests);
 
+        clearCounts();
+        System.out.println("testCardAtlas");
+        testCardAtlas();
+        correct+= correctTests;
+        total += totalTests;
+        System.out.println("  Passed " + correctTests + " of " + totalTests);
+
         System.out.println("---------- testing complete ----------");
         System.out.println("Overall: Passed " + correct  + " out of " + total + " tests");
 
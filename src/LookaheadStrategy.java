@@ -0,0 +1,106 @@
+/**
+ * Strategy that tries every line of up to depth moves and plays the first
+ * move of the line that ends in the best position, judged by the cards on
+ * the foundations and the cards still face down. When no line improves on
+ * the current position, it plays as GreedyStrategy does. Ties go to the
+ * move the solver would try first.
+ * <p>
+ * The lines are played out on the model itself with apply and undo, so a
+ * decision costs no allocation, but the time it takes grows exponentially
+ * with depth; depths of 1 to 3 decide in microseconds to milliseconds.
+ */
+public class LookaheadStrategy implements Strategy {
+
+    /** Value of a card on a foundation. */
+    private static final int FOUNDATION_VALUE = 10;
+
+    /** Cost of a card still face down in the tableau. */
+    private static final int FACE_DOWN_COST = 5;
+
+    /** Value of a won position, more than any other can reach. */
+    private static final int WON_VALUE = 1_000_000;
+
+    /** Number of moves looked ahead. */
+    private final int depth;
+
+    /** Move buffers for each ply of the lookahead. */
+    private final MoveBuffer[] buffers;
+
+    /** Strategy followed when no line improves the position. */
+    private final GreedyStrategy greedy = new GreedyStrategy();
+
+    /**
+     * Creates a strategy that looks depth moves ahead.
+     *
+     * @throws IllegalArgumentException if depth is less than 1
+     */
+    public LookaheadStrategy(int depth) {
+        if (depth < 1) {
+            throw new IllegalArgumentException("Lookahead depth must be at least 1: " + depth);
+        }
+        this.depth = depth;
+        buffers = new MoveBuffer[depth];
+        for (int i = 0; i < depth; i++) {
+            buffers[i] = new MoveBuffer();
+        }
+    }
+
+    @Override
+    public int chooseMove(KlondikeModel model) {
+        MoveBuffer moves = buffers[0];
+        model.generateMoves(moves);
+        int best = NO_MOVE;
+        int bestValue = evaluate(model);
+        int bestScore = Integer.MIN_VALUE;
+        for (int i = 0; i < moves.size(); i++) {
+            int move = moves.get(i);
+            int score = Solver.score(model, move);
+            if (score < 0) {
+                continue;
+            }
+            model.apply(move);
+            int value = search(model, 1);
+            model.undo();
+            if (value > bestValue || value == bestValue && best != NO_MOVE && score > bestScore) {
+                best = move;
+                bestValue = value;
+                bestScore = score;
+            }
+        }
+        return best == NO_MOVE ? greedy.chooseMove(model) : best;
+    }
+
+    /**
+     * Returns the value of the best position within depth - ply moves of
+     * model's, leaving the model as it was.
+     */
+    private int search(KlondikeModel model, int ply) {
+        int best = evaluate(model);
+        if (ply == depth || model.isWon()) {
+            return best;
+        }
+        MoveBuffer moves = buffers[ply];
+        model.generateMoves(moves);
+        for (int i = 0; i < moves.size(); i++) {
+            model.apply(moves.get(i));
+            best = Math.max(best, search(model, ply + 1));
+            model.undo();
+        }
+        return best;
+    }
+
+    /** Rates model's position: higher is better. */
+    private static int evaluate(KlondikeModel model) {
+        if (model.isWon()) {
+            return WON_VALUE;
+        }
+        int value = 0;
+        for (int f = 0; f < 4; f++) {
+            value += FOUNDATION_VALUE * model.getFoundation(f).size();
+        }
+        for (int t = 0; t < 7; t++) {
+            value -= FACE_DOWN_COST * model.getTableau(t).getFaceDownCount();
+        }
+        return value;
+    }
+}
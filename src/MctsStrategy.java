@@ -0,0 +1,390 @@
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Strategy that plays by Monte Carlo tree search without looking at the
+ * cards a player cannot see. Each playout first determinizes the position:
+ * it deals the face-down tableau cards and the deck out again in a random
+ * order, keeping every visible card where it is. It then walks down a tree
+ * of moves (information set MCTS: a node's statistics are shared by every
+ * determinization in which its move is legal), adds one new move, and
+ * finishes the game with quick random moves. The share of cards that reach
+ * the foundations, or 1 for a win, is the playout's reward.
+ * <p>
+ * Searches may run as several independent trees on the threads of a
+ * ForkJoinPool (root parallelization); the move played is the one visited
+ * most over all trees. When the game goes on with the move chosen last time,
+ * each tree keeps the subtree below that move for the next decision. A
+ * decision ends early, with the best move found so far, if the thread that
+ * makes it is interrupted; the trees searched in the pool are told to stop
+ * as well.
+ * <p>
+ * The deck is always treated as unknown, even after the player has been
+ * through it once and could know its order.
+ */
+public class MctsStrategy implements Strategy {
+
+    /** Default number of playouts per decision. */
+    public static final int DEFAULT_PLAYOUTS = 2_000;
+
+    /** Weight of exploration against exploitation in the UCB1 formula. */
+    private static final double EXPLORATION = 0.7;
+
+    /** Deepest the tree grows below the root. */
+    private static final int MAX_TREE_DEPTH = 64;
+
+    /** Most moves in a playout. */
+    private static final int PLAYOUT_MOVES = 200;
+
+    /** Moves without progress after which a playout ends. */
+    private static final int PLAYOUT_IDLE_MOVES = 40;
+
+    /** Playouts between checks of the clock. */
+    private static final int CLOCK_INTERVAL = 16;
+
+    /** Pool the trees are searched in, or null to search in the caller's thread. */
+    private final ForkJoinPool pool;
+
+    /** Most playouts per decision over all trees, or 0 for no limit. */
+    private final int maxPlayouts;
+
+    /** Longest time a decision takes, in nanoseconds, or 0 for no limit. */
+    private final long maxNanos;
+
+    /** One searcher per tree. */
+    private final Searcher[] searchers;
+
+    /** Set when the caller is interrupted, to stop the searches in the pool. */
+    private final AtomicBoolean stop = new AtomicBoolean();
+
+    /** Position the move chosen last reaches, to tell if the trees still apply. */
+    private KlondikeModel expected;
+
+    /** Move chosen last, or NO_MOVE. */
+    private int lastMove = NO_MOVE;
+
+    /** Playouts run by the last decision. */
+    private long playouts;
+
+    /**
+     * Creates a strategy that searches a single tree in the caller's thread,
+     * for up to maxPlayouts playouts and up to maxMillis milliseconds per
+     * decision. Either limit may be 0 for none, but not both.
+     */
+    public MctsStrategy(int maxPlayouts, long maxMillis, long seed) {
+        this(null, 1, maxPlayouts, maxMillis, seed);
+    }
+
+    /**
+     * Creates a strategy that searches trees independent trees in pool, for
+     * up to maxPlayouts playouts in all and up to maxMillis milliseconds per
+     * decision. Either limit may be 0 for none, but not both. If pool is
+     * null, the trees are searched one after another in the caller's thread.
+     *
+     * @throws IllegalArgumentException if trees is less than 1, a limit is
+     *     negative, or neither limit is set
+     */
+    public MctsStrategy(ForkJoinPool pool, int trees, int maxPlayouts, long maxMillis, long seed) {
+        if (trees < 1 || maxPlayouts < 0 || maxMillis < 0 || maxPlayouts == 0 && maxMillis == 0) {
+            throw new IllegalArgumentException("Bad search limits: " + trees + " trees, "
+              + maxPlayouts + " playouts, " + maxMillis + " ms");
+        }
+        this.pool = pool;
+        this.maxPlayouts = maxPlayouts;
+        this.maxNanos = maxMillis * 1_000_000;
+        SplitMix64 seeds = new SplitMix64(seed);
+        searchers = new Searcher[trees];
+        for (int i = 0; i < trees; i++) {
+            searchers[i] = new Searcher(seeds.nextLong());
+        }
+    }
+
+    @Override
+    public int chooseMove(KlondikeModel model) {
+        if (model.isWon()) {
+            return NO_MOVE;
+        }
+        int played = expected != null && expected.equals(model) ? lastMove : NO_MOVE;
+        long deadline = maxNanos == 0 ? Long.MAX_VALUE : System.nanoTime() + maxNanos;
+        int share = maxPlayouts == 0 ? Integer.MAX_VALUE
+          : (maxPlayouts + searchers.length - 1) / searchers.length;
+        for (Searcher searcher : searchers) {
+            searcher.prepare(model, played);
+        }
+        stop.set(false);
+        if (pool == null || searchers.length == 1) {
+            for (Searcher searcher : searchers) {
+                searcher.search(share, deadline, stop);
+            }
+        } else {
+            ForkJoinTask<?>[] tasks = new ForkJoinTask<?>[searchers.length];
+            for (int i = 0; i < tasks.length; i++) {
+                Searcher searcher = searchers[i];
+                tasks[i] = pool.submit(() -> searcher.search(share, deadline, stop));
+            }
+            for (ForkJoinTask<?> task : tasks) {
+                try {
+                    task.get();
+                } catch (InterruptedException ex) {
+                    // The workers cannot see the caller's interrupt; keep it for the caller
+                    stop.set(true);
+                    Thread.currentThread().interrupt();
+                } catch (ExecutionException ex) {
+                    // Rethrown by join below
+                }
+            }
+            for (ForkJoinTask<?> task : tasks) {
+                task.join();
+            }
+        }
+
+        // The legal moves are the same in every determinization
+        Node[] roots = new Node[searchers.length];
+        playouts = 0;
+        for (int i = 0; i < searchers.length; i++) {
+            roots[i] = searchers[i].root;
+            playouts += searchers[i].playouts;
+        }
+        int best = NO_MOVE;
+        long bestVisits = 0;
+        for (int c = 0; c < roots[0].childCount; c++) {
+            int move = roots[0].children[c].move;
+            long visits = 0;
+            for (Node root : roots) {
+                Node child = root.child(move);
+                visits += child == null ? 0 : child.visits;
+            }
+            if (visits > bestVisits) {
+                best = move;
+                bestVisits = visits;
+            }
+        }
+        if (best == NO_MOVE) {
+            expected = null;
+        } else {
+            expected = model.snapshot();
+            expected.apply(best);
+        }
+        lastMove = best;
+        return best;
+    }
+
+    /** Returns the number of playouts run by the last decision, over all trees. */
+    public long getPlayouts() {
+        return playouts;
+    }
+
+    /** Node of a search tree: a move and what playouts through it earned. */
+    private static final class Node {
+
+        private static final Node[] NO_CHILDREN = new Node[0];
+
+        /** Move that leads here from the parent. */
+        final int move;
+
+        /** Moves tried from here, in the first childCount entries. */
+        Node[] children = NO_CHILDREN;
+        int childCount;
+
+        /** Playouts through this node. */
+        int visits;
+
+        /** Times this node's move was legal when its parent was selected from. */
+        int available;
+
+        /** Total reward of the playouts through this node. */
+        double reward;
+
+        Node(int move) {
+            this.move = move;
+        }
+
+        /** Returns the child reached by move, or null if it was never tried. */
+        Node child(int move) {
+            for (int i = 0; i < childCount; i++) {
+                if (children[i].move == move) {
+                    return children[i];
+                }
+            }
+            return null;
+        }
+
+        /** Adds and returns a child for move. */
+        Node add(int move) {
+            if (childCount == children.length) {
+                children = Arrays.copyOf(children, Math.max(4, 2 * childCount));
+            }
+            Node child = new Node(move);
+            children[childCount++] = child;
+            return child;
+        }
+    }
+
+    /** Searches one tree, with its own random numbers and scratch space. */
+    private static final class Searcher {
+
+        private final SplitMix64 random;
+        private final MoveBuffer moves = new MoveBuffer();
+        private final Node[] path = new Node[MAX_TREE_DEPTH + 1];
+        private final Card[] hidden = new Card[Card.COUNT];
+
+        /** Root of the tree: the position being decided. */
+        Node root;
+
+        /** The position being decided, as seen by the caller. */
+        private KlondikeModel position;
+
+        /** Playouts run by the current search. */
+        long playouts;
+
+        Searcher(long seed) {
+            random = new SplitMix64(seed);
+        }
+
+        /**
+         * Starts a decision for model's position, keeping the subtree below
+         * played if it is the move that led there from the last root.
+         */
+        void prepare(KlondikeModel model, int played) {
+            position = model.snapshot();
+            Node next = played == NO_MOVE || root == null ? null : root.child(played);
+            root = next == null ? new Node(NO_MOVE) : next;
+            playouts = 0;
+        }
+
+        /**
+         * Runs up to limit playouts, stopping early at deadline, when stop is
+         * set or when the thread is interrupted.
+         */
+        void search(int limit, long deadline, AtomicBoolean stop) {
+            while (playouts < limit && (playouts % CLOCK_INTERVAL != 0
+              || System.nanoTime() < deadline && !stop.get()
+                && !Thread.currentThread().isInterrupted())) {
+                iterate();
+                playouts++;
+            }
+        }
+
+        /** Runs one playout and updates the tree with its reward. */
+        private void iterate() {
+            KlondikeModel game = determinize();
+            Node node = root;
+            int depth = 0;
+            path[depth++] = node;
+            while (depth <= MAX_TREE_DEPTH && !game.isWon()) {
+                game.generateMoves(moves);
+                Node best = null;
+                double bestValue = Double.NEGATIVE_INFINITY;
+                int untried = 0;
+                int pick = NO_MOVE;
+                for (int i = 0; i < moves.size(); i++) {
+                    int move = moves.get(i);
+                    if (Solver.score(game, move) < 0) {
+                        continue;
+                    }
+                    Node child = node.child(move);
+                    if (child == null) {
+                        // Choose uniformly among the untried moves
+                        if (random.nextInt(++untried) == 0) {
+                            pick = move;
+                        }
+                        continue;
+                    }
+                    child.available++;
+                    double value = child.reward / child.visits
+                      + EXPLORATION * Math.sqrt(Math.log(child.available) / child.visits);
+                    if (value > bestValue) {
+                        best = child;
+                        bestValue = value;
+                    }
+                }
+                if (pick != NO_MOVE) {
+                    game.apply(pick);
+                    path[depth++] = node.add(pick);
+                    break;
+                }
+                if (best == null) {
+                    break;
+                }
+                game.apply(best.move);
+                path[depth++] = best;
+                node = best;
+            }
+            double reward = playout(game);
+            for (int i = 0; i < depth; i++) {
+                path[i].visits++;
+                path[i].reward += reward;
+            }
+        }
+
+        /**
+         * Returns a copy of position with the face-down tableau cards and the
+         * deck shuffled among themselves.
+         */
+        private KlondikeModel determinize() {
+            KlondikeModel game = position.snapshot();
+            Deck deck = game.getDeck();
+            int n = 0;
+            for (int i = 0; i < deck.size(); i++) {
+                hidden[n++] = deck.getCardAt(i);
+            }
+            for (int t = 0; t < 7; t++) {
+                Deck pile = game.getTableau(t);
+                for (int i = 0; i < pile.getFaceDownCount(); i++) {
+                    hidden[n++] = pile.getCardAt(i);
+                }
+            }
+            for (int i = n - 1; i > 0; i--) {
+                int j = random.nextInt(i + 1);
+                Card c = hidden[i];
+                hidden[i] = hidden[j];
+                hidden[j] = c;
+            }
+            n = 0;
+            for (int i = 0; i < deck.size(); i++) {
+                deck.setCardAt(i, hidden[n++]);
+            }
+            for (int t = 0; t < 7; t++) {
+                Deck pile = game.getTableau(t);
+                for (int i = 0; i < pile.getFaceDownCount(); i++) {
+                    pile.setCardAt(i, hidden[n++]);
+                }
+            }
+            return game;
+        }
+
+        /**
+         * Finishes game with random moves, always taking a move to a
+         * foundation when there is one, and returns the reward.
+         */
+        private double playout(KlondikeModel game) {
+            int idle = 0;
+            for (int m = 0; m < PLAYOUT_MOVES && idle < PLAYOUT_IDLE_MOVES && !game.isWon(); m++) {
+                game.generateMoves(moves);
+                if (moves.size() == 0) {
+                    break;
+                }
+                int move = moves.get(random.nextInt(moves.size()));
+                for (int i = 0; i < moves.size(); i++) {
+                    int destination = Move.destination(moves.get(i));
+                    if (destination >= KlondikeModel.FOUNDATION && destination < KlondikeModel.TABLEAU) {
+                        move = moves.get(i);
+                        break;
+                    }
+                }
+                idle = Simulator.isProgress(game.apply(move)) ? 0 : idle + 1;
+            }
+            if (game.isWon()) {
+                return 1;
+            }
+            int cards = 0;
+            for (int f = 0; f < 4; f++) {
+                cards += game.getFoundation(f).size();
+            }
+            return (double) cards / Card.COUNT;
+        }
+    }
+}
@@ -0,0 +1,113 @@
+/**
+ * Moves encoded as ints, so that search code can store and pass them around
+ * without allocating. A move names a source pile, a destination pile (both
+ * indices as in KlondikeModel#getPile(int)) and the number of cards moved.
+ * Drawing a card, or turning the draw pile back over, is a move from the
+ * deck to the draw pile.
+ * <p>
+ * KlondikeModel#apply(int) returns the move with flags added that record
+ * what else happened (a card turned up, the draw pile recycled), which is
+ * exactly what KlondikeModel#undo() needs to take the move back.
+ */
+public class Move {
+
+    /**
+     * Move that draws the next card (or recycles the draw pile). Under
+     * KlondikeRules.DRAW_THREE a draw moves up to three cards instead.
+     */
+    public static final int DRAW = of(KlondikeModel.DECK, KlondikeModel.DRAW_PILE, 1);
+
+    /** Bits holding the source pile. */
+    private static final int SOURCE_SHIFT = 0;
+
+    /** Bits holding the destination pile. */
+    private static final int DESTINATION_SHIFT = 4;
+
+    /** Bits holding the number of cards moved. */
+    private static final int COUNT_SHIFT = 8;
+
+    /** Mask for a pile index. */
+    private static final int PILE_MASK = 0xF;
+
+    /** Mask for a card count. */
+    private static final int COUNT_MASK = 0x3F;
+
+    /** Flag: the move turned up the card left on top of the source pile. */
+    public static final int FLIPPED = 1 << 14;
+
+    /** Flag: the move turned the draw pile back over onto the deck. */
+    public static final int RECYCLED = 1 << 15;
+
+    /** Mask for the part of a move that excludes the flags. */
+    private static final int MOVE_MASK = FLIPPED - 1;
+
+    private Move() {
+    }
+
+    /**
+     * Encodes a move of count cards from pile source to pile destination.
+     */
+    public static int of(int source, int destination, int count) {
+        return (source << SOURCE_SHIFT)
+          | (destination << DESTINATION_SHIFT)
+          | (count << COUNT_SHIFT);
+    }
+
+    /** Returns the index of the pile the move takes cards from. */
+    public static int source(int move) {
+        return (move >>> SOURCE_SHIFT) & PILE_MASK;
+    }
+
+    /** Returns the index of the pile the move puts cards on. */
+    public static int destination(int move) {
+        return (move >>> DESTINATION_SHIFT) & PILE_MASK;
+    }
+
+    /** Returns the number of cards the move takes. */
+    public static int count(int move) {
+        return (move >>> COUNT_SHIFT) & COUNT_MASK;
+    }
+
+    /** Returns move without the FLIPPED and RECYCLED flags. */
+    public static int withoutFlags(int move) {
+        return move & MOVE_MASK;
+    }
+
+    /** Returns true if the move draws from the deck or turns the draw pile back over. */
+    public static boolean isDraw(int move) {
+        return source(move) == KlondikeModel.DECK;
+    }
+
+    /** Returns true if the move turned up a card in its source pile. */
+    public static boolean isFlipped(int move) {
+        return (move & FLIPPED) != 0;
+    }
+
+    /** Returns true if the move turned the draw pile back over. */
+    public static boolean isRecycled(int move) {
+        return (move & RECYCLED) != 0;
+    }
+
+    /** Returns a short description such as "T3->F1 x1", "draw" or "draw x3". */
+    public static String toString(int move) {
+        if (withoutFlags(move) == DRAW) {
+            return "draw";
+        } else if (isDraw(move)) {
+            return "draw x" + count(move);
+        }
+        return pileName(source(move)) + "->" + pileName(destination(move))
+          + " x" + count(move);
+    }
+
+    /** Returns D for the deck, W for the draw pile, F0-F3 or T0-T6. */
+    private static String pileName(int pile) {
+        if (pile == KlondikeModel.DECK) {
+            return "D";
+        } else if (pile == KlondikeModel.DRAW_PILE) {
+            return "W";
+        } else if (pile < KlondikeModel.TABLEAU) {
+            return "F" + (pile - KlondikeModel.FOUNDATION);
+        }
+        return "T" + (pile - KlondikeModel.TABLEAU);
+    }
+}
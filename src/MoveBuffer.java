@@ -0,0 +1,56 @@
+/**
+ * Reusable list of moves, in the int encoding of Move. Filling a buffer
+ * never allocates once it has been created, so a caller can keep one buffer
+ * per search depth and regenerate moves into it as often as it likes.
+ */
+public class MoveBuffer {
+
+    /** Enough room for every legal move in any position. */
+    public static final int CAPACITY = 64;
+
+    /** The moves; only the first size entries are meaningful. */
+    private final int[] moves = new int[CAPACITY];
+
+    /** Number of moves in the buffer. */
+    private int size;
+
+    /** Removes every move from the buffer. */
+    public void clear() {
+        size = 0;
+    }
+
+    /** Appends move to the buffer. */
+    public void add(int move) {
+        moves[size++] = move;
+    }
+
+    /** Removes the last move from the buffer. */
+    public void removeLast() {
+        size--;
+    }
+
+    /** Returns the ith move. */
+    public int get(int i) {
+        return moves[i];
+    }
+
+    /** Replaces the ith move. */
+    public void set(int i, int move) {
+        moves[i] = move;
+    }
+
+    /** Returns the number of moves in the buffer. */
+    public int size() {
+        return size;
+    }
+
+    /** Returns true if move is in the buffer. */
+    public boolean contains(int move) {
+        for (int i = 0; i < size; i++) {
+            if (moves[i] == move) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,263 @@
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Solver that spreads the search over the threads of a ForkJoinPool. Each
+ * thread runs the same depth-first search as Solver; while other threads are
+ * short of work, the moves of a position are forked as separate tasks, each
+ * on its own copy of the game, for idle threads to steal. All threads
+ * share one lock-free transposition table, and every thread stops as soon
+ * as any of them finds a win.
+ */
+public class ParallelSolver {
+
+    /** Positions a worker expands between updates of the shared node count. */
+    private static final int NODE_BATCH = 1024;
+
+    /** Deepest position whose moves may still be forked as separate tasks. */
+    private static final int MAX_SPLIT_DEPTH = 64;
+
+    /** Queued tasks beyond which a worker keeps its moves to itself. */
+    private static final int SURPLUS_TASKS = 2;
+
+    /** Pool that runs the search. */
+    private final ForkJoinPool pool;
+
+    /** Maximum number of positions expanded per search, over all threads. */
+    private final long nodeLimit;
+
+    /** Hashes of positions already searched, shared by every worker. */
+    private final TranspositionTable table;
+
+    /** Positions expanded so far by all workers. */
+    private final AtomicLong totalNodes = new AtomicLong();
+
+    /** Set when a worker finds a win or the node limit is reached. */
+    private volatile boolean stopped;
+
+    /** Set when some worker skipped part of the tree. */
+    private volatile boolean truncated;
+
+    /** Moves of the win found by the last solve. */
+    private int[] solution = new int[0];
+
+    /** Wall-clock time of the last solve, in nanoseconds. */
+    private long elapsedNanos;
+
+    /**
+     * Creates a solver that runs in the common pool and expands up to
+     * Solver.DEFAULT_MAX_NODES positions.
+     */
+    public ParallelSolver() {
+        this(ForkJoinPool.commonPool(), Solver.DEFAULT_MAX_NODES);
+    }
+
+    /**
+     * Creates a solver that runs in pool and expands up to maxNodes
+     * positions, with a transposition table sized for them.
+     */
+    public ParallelSolver(ForkJoinPool pool, long maxNodes) {
+        this(pool, maxNodes, TranspositionTable.forNodes(maxNodes));
+    }
+
+    /**
+     * Creates a solver that runs in pool, expands up to maxNodes positions
+     * and records searched positions in table.
+     */
+    public ParallelSolver(ForkJoinPool pool, long maxNodes, TranspositionTable table) {
+        this.pool = pool;
+        this.nodeLimit = maxNodes;
+        this.table = table;
+    }
+
+    /**
+     * Searches for a win from model's position. The model itself is not
+     * changed. Only one search may run at a time.
+     */
+    public synchronized Solver.Outcome solve(KlondikeModel model) {
+        table.newSearch();
+        totalNodes.set(0);
+        stopped = false;
+        truncated = false;
+        long start = System.nanoTime();
+        Worker root = new Worker(new int[0]);
+        boolean won = pool.invoke(new SearchTask(root, model.snapshot(), 0));
+        elapsedNanos = System.nanoTime() - start;
+        if (won) {
+            solution = Solver.moves(root.path, root.pathLength);
+            return Solver.Outcome.WON;
+        }
+        solution = new int[0];
+        return truncated ? Solver.Outcome.UNKNOWN : Solver.Outcome.UNWINNABLE;
+    }
+
+    /**
+     * Returns the moves of the win found by the last solve, in the encoding
+     * of Move, or an empty array if no win was found.
+     */
+    public int[] getSolution() {
+        return solution.clone();
+    }
+
+    /** Returns the transposition table, whose statistics cover the last solve. */
+    public TranspositionTable getTable() {
+        return table;
+    }
+
+    /** Returns the number of positions expanded by the last solve. */
+    public long getNodes() {
+        return totalNodes.get();
+    }
+
+    /** Returns the positions expanded per second by the last solve. */
+    public double getNodesPerSecond() {
+        return elapsedNanos == 0 ? 0 : totalNodes.get() * 1e9 / elapsedNanos;
+    }
+
+    /** Returns the duration of the last solve in milliseconds. */
+    public double getMillis() {
+        return elapsedNanos / 1e6;
+    }
+
+    /** Task that searches below one position with its own Worker. */
+    private class SearchTask extends RecursiveTask<Boolean> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Worker worker;
+        private final KlondikeModel model;
+        private final int depth;
+
+        SearchTask(Worker worker, KlondikeModel model, int depth) {
+            this.worker = worker;
+            this.model = model;
+            this.depth = depth;
+        }
+
+        @Override
+        protected Boolean compute() {
+            boolean won = worker.search(model, depth);
+            worker.flushNodes();
+            if (worker.truncated) {
+                truncated = true;
+            }
+            return won;
+        }
+    }
+
+    /**
+     * Depth-first search that shares its transposition table, node count and
+     * stop flag with the other workers, and forks its moves when other threads
+     * are idle.
+     */
+    private class Worker extends Solver {
+
+        /** Nodes expanded since they were last added to the shared count. */
+        private int pending;
+
+        /** Starts a search whose moves so far are prefix. */
+        Worker(int[] prefix) {
+            super(nodeLimit, ParallelSolver.this.table);
+            for (int move : prefix) {
+                push(move);
+            }
+        }
+
+        @Override
+        boolean search(KlondikeModel model, int depth) {
+            if (super.search(model, depth)) {
+                stopped = true;
+                return true;
+            }
+            return false;
+        }
+
+        @Override
+        boolean searchMoves(KlondikeModel model, MoveBuffer moves, int depth) {
+            int n = moves.size();
+            if (n < 2 || depth >= MAX_SPLIT_DEPTH
+              || ForkJoinTask.getSurplusQueuedTaskCount() > SURPLUS_TASKS) {
+                return super.searchMoves(model, moves, depth);
+            }
+            SearchTask[] tasks = new SearchTask[n];
+            for (int i = 0; i < n; i++) {
+                KlondikeModel child = model.snapshot();
+                Worker worker = new Worker(Arrays.copyOf(path, pathLength));
+                worker.push(child.apply(moves.get(i)));
+                tasks[i] = new SearchTask(worker, child, depth + 1);
+            }
+            ForkJoinTask.invokeAll(tasks);
+            for (SearchTask task : tasks) {
+                if (task.join()) {
+                    path = task.worker.path;
+                    pathLength = task.worker.pathLength;
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        boolean isStopped() {
+            return stopped;
+        }
+
+        @Override
+        void countNode() {
+            nodes++;
+            if (++pending == NODE_BATCH) {
+                flushNodes();
+            }
+        }
+
+        /** Adds this worker's recent nodes to the shared count. */
+        void flushNodes() {
+            if (totalNodes.addAndGet(pending) >= nodeLimit) {
+                stopped = true;
+            }
+            pending = 0;
+        }
+    }
+
+    /**
+     * Benchmarks the speedup over thread counts from 1 to the number of
+     * processors, solving the deals numbered on the command line (deals 1 to
+     * 20 by default) with each.
+     */
+    public static void main(String[] args) {
+        long[] deals = new long[args.length == 0 ? 20 : args.length];
+        for (int i = 0; i < deals.length; i++) {
+            deals[i] = args.length == 0 ? i + 1 : Long.parseLong(args[i]);
+        }
+        int processors = Runtime.getRuntime().availableProcessors();
+        double baseline = 0;
+        int threads = 1;
+        while (true) {
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            ParallelSolver solver = new ParallelSolver(pool, 500_000);
+            long totalNodes = 0;
+            int won = 0;
+            long start = System.nanoTime();
+            for (long deal : deals) {
+                if (solver.solve(new KlondikeModel(deal)) == Solver.Outcome.WON) {
+                    won++;
+                }
+                totalNodes += solver.getNodes();
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
+            pool.shutdown();
+            if (threads == 1) {
+                baseline = seconds;
+            }
+            System.out.printf("%2d threads: %d/%d won, %.2f s, %.0f nodes/s, speedup %.2f%n",
+              threads, won, deals.length, seconds, totalNodes / seconds, baseline / seconds);
+            if (threads == processors) {
+                break;
+            }
+            threads = Math.min(2 * threads, processors);
+        }
+    }
+}
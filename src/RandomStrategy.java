@@ -0,0 +1,26 @@
+/**
+ * Strategy that plays a legal move chosen uniformly at random, drawing
+ * included. It gives up only when there is no legal move at all.
+ */
+public class RandomStrategy implements Strategy {
+
+    /** Moves of the position being decided. */
+    private final MoveBuffer moves = new MoveBuffer();
+
+    /** Source of the choices. */
+    private final SplitMix64 random;
+
+    /** Creates a strategy whose choices are determined by seed. */
+    public RandomStrategy(long seed) {
+        random = new SplitMix64(seed);
+    }
+
+    @Override
+    public int chooseMove(KlondikeModel model) {
+        model.generateMoves(moves);
+        if (moves.size() == 0) {
+            return NO_MOVE;
+        }
+        return moves.get(random.nextInt(moves.size()));
+    }
+}
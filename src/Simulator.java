@@ -0,0 +1,221 @@
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Supplier;
+
+/**
+ * Plays numbered deals with a Strategy, without any GUI, and totals up how
+ * it fares. The deals are split into batches that run on the threads of a
+ * ForkJoinPool, each batch with its own strategy from a Supplier, so the
+ * strategies themselves need not be thread-safe.
+ * <p>
+ * A game ends when it is won, when the strategy gives up, or when it has
+ * gone maxIdleMoves moves without progress, that is without putting a card
+ * on a foundation or turning one up. Progress can happen only so often, so
+ * every game ends.
+ */
+public class Simulator {
+
+    /** Default number of moves without progress after which a game is lost. */
+    public static final int DEFAULT_MAX_IDLE_MOVES = 200;
+
+    /** Number of games a task plays itself rather than splitting further. */
+    private static final int BATCH = 256;
+
+    /** Pool that plays the games. */
+    private final ForkJoinPool pool;
+
+    /** Source of a strategy for each batch. */
+    private final Supplier<? extends Strategy> strategies;
+
+    /** Moves without progress after which a game is lost. */
+    private final int maxIdleMoves;
+
+    /** Rules the games are played by. */
+    private final KlondikeRules rules;
+
+    /**
+     * Creates a simulator that plays in the common pool with strategies from
+     * the given supplier.
+     */
+    public Simulator(Supplier<? extends Strategy> strategies) {
+        this(ForkJoinPool.commonPool(), strategies, DEFAULT_MAX_IDLE_MOVES);
+    }
+
+    /**
+     * Creates a simulator that plays in pool with strategies from the given
+     * supplier, giving up a game after maxIdleMoves moves without progress.
+     */
+    public Simulator(ForkJoinPool pool, Supplier<? extends Strategy> strategies, int maxIdleMoves) {
+        this(pool, strategies, maxIdleMoves, KlondikeRules.DRAW_ONE);
+    }
+
+    /**
+     * Creates a simulator that plays by rules in pool with strategies from
+     * the given supplier, giving up a game after maxIdleMoves moves without
+     * progress.
+     */
+    public Simulator(ForkJoinPool pool, Supplier<? extends Strategy> strategies, int maxIdleMoves,
+      KlondikeRules rules) {
+        this.pool = pool;
+        this.strategies = strategies;
+        this.maxIdleMoves = maxIdleMoves;
+        this.rules = rules;
+    }
+
+    /** Plays the deals numbered firstDeal to firstDeal + games - 1. */
+    public Result run(long firstDeal, long games) {
+        long start = System.nanoTime();
+        Result result = pool.invoke(new Batch(firstDeal, games));
+        result.nanos = System.nanoTime() - start;
+        return result;
+    }
+
+    /**
+     * Plays the game in model with strategy until it is won, the strategy
+     * gives up, or maxIdleMoves moves go by without progress. Returns the
+     * number of moves made.
+     */
+    public static int play(KlondikeModel model, Strategy strategy, int maxIdleMoves) {
+        int moves = 0;
+        int idle = 0;
+        while (!model.isWon() && idle < maxIdleMoves) {
+            int move = strategy.chooseMove(model);
+            if (move == Strategy.NO_MOVE) {
+                break;
+            }
+            moves++;
+            idle = isProgress(model.apply(move)) ? 0 : idle + 1;
+        }
+        return moves;
+    }
+
+    /**
+     * Returns true if applied, a move as returned by KlondikeModel#apply,
+     * put a card on a foundation or turned one up.
+     */
+    public static boolean isProgress(int applied) {
+        int destination = Move.destination(applied);
+        return Move.isFlipped(applied)
+          || destination >= KlondikeModel.FOUNDATION && destination < KlondikeModel.TABLEAU;
+    }
+
+    /** Totals over the games of a run. */
+    public static class Result {
+
+        private long games;
+        private long wins;
+        private long moves;
+        private long nanos;
+
+        /** Returns the number of games played. */
+        public long getGames() {
+            return games;
+        }
+
+        /** Returns the number of games won. */
+        public long getWins() {
+            return wins;
+        }
+
+        /** Returns the fraction of games won. */
+        public double getWinRate() {
+            return games == 0 ? 0 : (double) wins / games;
+        }
+
+        /** Returns the mean number of moves per game. */
+        public double getAverageMoves() {
+            return games == 0 ? 0 : (double) moves / games;
+        }
+
+        /** Returns the number of games played per second of wall-clock time. */
+        public double getGamesPerSecond() {
+            return nanos == 0 ? 0 : games * 1e9 / nanos;
+        }
+
+        /** Adds the games of other to this result. */
+        private void add(Result other) {
+            games += other.games;
+            wins += other.wins;
+            moves += other.moves;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d games, %d won (%.2f%%), %.1f moves/game, %.0f games/s",
+              games, wins, 100 * getWinRate(), getAverageMoves(), getGamesPerSecond());
+        }
+    }
+
+    /** Task that plays a range of deals, splitting it while it is large. */
+    private class Batch extends RecursiveTask<Result> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final long firstDeal;
+        private final long games;
+
+        Batch(long firstDeal, long games) {
+            this.firstDeal = firstDeal;
+            this.games = games;
+        }
+
+        @Override
+        protected Result compute() {
+            if (games > BATCH) {
+                long half = games / 2;
+                Batch left = new Batch(firstDeal, half);
+                left.fork();
+                Result result = new Batch(firstDeal + half, games - half).compute();
+                result.add(left.join());
+                return result;
+            }
+            Strategy strategy = strategies.get();
+            Result result = new Result();
+            for (long deal = firstDeal; deal < firstDeal + games; deal++) {
+                KlondikeModel model = new KlondikeModel(deal, rules);
+                result.moves += play(model, strategy, maxIdleMoves);
+                if (model.isWon()) {
+                    result.wins++;
+                }
+                result.games++;
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Holds a tournament: plays the same deals with each of a list of
+     * strategies and prints the totals of each. Arguments, all optional: the
+     * number of games (default 100000), the first deal number (default 1),
+     * the number of threads (default the number of processors), the rules,
+     * as for KlondikeRules#of(String) (default draw1), and the names of the
+     * strategies, as for Strategy#of (default random, greedy, lookahead-1 and
+     * lookahead-2). The rules may be left out even if strategies are named.
+     */
+    public static void main(String[] args) {
+        long games = args.length > 0 ? Long.parseLong(args[0]) : 100_000;
+        long firstDeal = args.length > 1 ? Long.parseLong(args[1]) : 1;
+        int threads = args.length > 2 ? Integer.parseInt(args[2])
+          : Runtime.getRuntime().availableProcessors();
+        int first = 3;
+        KlondikeRules rules = KlondikeRules.DRAW_ONE;
+        if (args.length > first && args[first].startsWith("draw")) {
+            rules = KlondikeRules.of(args[first++]);
+        }
+        String[] names = args.length > first ? Arrays.copyOfRange(args, first, args.length)
+          : new String[] { "random", "greedy", "lookahead-1", "lookahead-2" };
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        SplitMix64 seeds = new SplitMix64(firstDeal);
+        for (String name : names) {
+            Strategy.of(name, 0); // Fail early on an unknown name
+            Simulator simulator = new Simulator(pool, () -> {
+                synchronized (seeds) {
+                    return Strategy.of(name, seeds.nextLong());
+                }
+            }, DEFAULT_MAX_IDLE_MOVES, rules);
+            System.out.printf("%-12s %s%n", name, simulator.run(firstDeal, games));
+        }
+        pool.shutdown();
+    }
+}
@@ -0,0 +1,391 @@
+import java.util.Arrays;
+
+/**
+ * Searches for a winning sequence of moves from a KlondikeModel position,
+ * with all face-down cards known (the "thoughtful" variant). The search is a
+ * depth-first search over the moves listed by KlondikeModel#generateMoves,
+ * made and taken back in place with the model's apply and undo, with a
+ * transposition table of positions already searched and moves tried in order
+ * of how promising they usually are. Foundation moves that can never hurt are
+ * made without branching.
+ * <p>
+ * Positions are recorded by KlondikeModel#getCanonicalHash(), so the search
+ * skips a position that differs from one already searched only by the order
+ * of the tableau columns or by how far the deck has been drawn. That the
+ * draw pile's top card may differ is made up for by following the draws
+ * from each recorded position all the way round the deck, trying the moves
+ * at each step, without recording the positions in between. Under rules
+ * that draw three cards or limit the passes through the deck, drawing cannot
+ * reach every such position, so the canonical hash keeps them apart and
+ * every position is recorded.
+ * <p>
+ * A Solver is not thread-safe, but can be reused for many positions.
+ */
+public class Solver {
+
+    /** Result of a search. */
+    public enum Outcome {
+        /** A winning sequence was found; see getSolution(). */
+        WON,
+        /** The whole game tree was searched without finding a win. */
+        UNWINNABLE,
+        /** The search gave up before finding a win or proving there is none. */
+        UNKNOWN
+    }
+
+    /** Default limit on the number of positions expanded per search. */
+    public static final long DEFAULT_MAX_NODES = 2_000_000;
+
+    /** Foundation indices of the black suits. */
+    private static final int[] BLACK_SUITS = { Suit.CLUBS.ordinal(), Suit.SPADES.ordinal() };
+
+    /** Foundation indices of the red suits. */
+    private static final int[] RED_SUITS = { Suit.HEARTS.ordinal(), Suit.DIAMONDS.ordinal() };
+
+    /** Score of a tableau move that neither turns up a card nor empties a column. */
+    static final int SHIFT_SCORE = 10;
+
+    /** Longest line the search follows before cutting it off. */
+    private static final int MAX_DEPTH = 4_000;
+
+    /** Maximum number of positions expanded per search. */
+    final long maxNodes;
+
+    /** Hashes of positions already searched in the current solve. */
+    final TranspositionTable table;
+
+    /** Moves from the root to the current position. */
+    int[] path = new int[256];
+
+    /** Number of moves in path. */
+    int pathLength;
+
+    /** Move buffers for each depth of the search, created as needed. */
+    private MoveBuffer[] buffers = new MoveBuffer[256];
+
+    /** Scores of the moves being ordered; see orderMoves. */
+    private final int[] scores = new int[MoveBuffer.CAPACITY];
+
+    /** Moves in the best (winning) line found by the last solve. */
+    private int[] solution = new int[0];
+
+    /** Positions expanded by the last solve. */
+    long nodes;
+
+    /** Wall-clock time of the last solve, in nanoseconds. */
+    private long elapsedNanos;
+
+    /** True if the last solve skipped part of the tree. */
+    boolean truncated;
+
+    /** Creates a solver that expands up to DEFAULT_MAX_NODES positions. */
+    public Solver() {
+        this(DEFAULT_MAX_NODES);
+    }
+
+    /**
+     * Creates a solver that expands up to maxNodes positions per solve, with
+     * a transposition table sized for them.
+     */
+    public Solver(long maxNodes) {
+        this(maxNodes, TranspositionTable.forNodes(maxNodes));
+    }
+
+    /**
+     * Creates a solver that expands up to maxNodes positions per solve and
+     * records searched positions in table.
+     */
+    public Solver(long maxNodes, TranspositionTable table) {
+        this.maxNodes = maxNodes;
+        this.table = table;
+    }
+
+    /**
+     * Searches for a win from model's position. The model itself is not
+     * changed.
+     */
+    public Outcome solve(KlondikeModel model) {
+        table.newSearch();
+        pathLength = 0;
+        nodes = 0;
+        truncated = false;
+        long start = System.nanoTime();
+        boolean won = search(model.snapshot(), 0);
+        elapsedNanos = System.nanoTime() - start;
+        if (won) {
+            solution = moves(path, pathLength);
+            return Outcome.WON;
+        }
+        solution = new int[0];
+        return truncated ? Outcome.UNKNOWN : Outcome.UNWINNABLE;
+    }
+
+    /**
+     * Returns the moves of the win found by the last solve, in the encoding
+     * of Move, or an empty array if no win was found.
+     */
+    public int[] getSolution() {
+        return solution.clone();
+    }
+
+    /**
+     * Returns the first length moves of path without the flags that apply
+     * adds.
+     */
+    static int[] moves(int[] path, int length) {
+        int[] moves = new int[length];
+        for (int i = 0; i < length; i++) {
+            moves[i] = Move.withoutFlags(path[i]);
+        }
+        return moves;
+    }
+
+    /** Returns the transposition table, whose statistics cover the last solve. */
+    public TranspositionTable getTable() {
+        return table;
+    }
+
+    /** Returns the number of positions expanded by the last solve. */
+    public long getNodes() {
+        return nodes;
+    }
+
+    /** Returns the positions expanded per second by the last solve. */
+    public double getNodesPerSecond() {
+        return elapsedNanos == 0 ? 0 : nodes * 1e9 / elapsedNanos;
+    }
+
+    /** Returns the duration of the last solve in milliseconds. */
+    public double getMillis() {
+        return elapsedNanos / 1e6;
+    }
+
+    /**
+     * Returns true if a win can be reached from model, leaving the model in
+     * the winning position and the winning line in path. Otherwise the model
+     * is returned to the position it had on entry.
+     */
+    boolean search(KlondikeModel model, int depth) {
+        int mark = pathLength;
+        playSafeMoves(model);
+        if (model.isWon()) {
+            return true;
+        }
+        if (isStopped() || depth >= MAX_DEPTH) {
+            truncated = true;
+            undoTo(model, mark);
+            return false;
+        }
+        if (pathLength == mark && isDraw(mark - 1) && model.getRules().drawsCycleFreely()) {
+            // Drawing does not change the canonical position, so the draws
+            // from a position are followed without table entries, once round
+            if (drawsInRow() > model.getDeck().size() + model.getDrawPile().size()) {
+                undoTo(model, mark);
+                return false;
+            }
+        } else if (!table.add(model.getCanonicalHash(), depth)) {
+            undoTo(model, mark);
+            return false;
+        }
+        countNode();
+        MoveBuffer moves = buffer(depth);
+        model.generateMoves(moves);
+        orderMoves(model, moves);
+        if (searchMoves(model, moves, depth)) {
+            return true;
+        }
+        undoTo(model, mark);
+        return false;
+    }
+
+    /**
+     * Tries each of the moves from model in turn, returning true (with the
+     * winning line in path) as soon as one leads to a win.
+     */
+    boolean searchMoves(KlondikeModel model, MoveBuffer moves, int depth) {
+        for (int i = 0; i < moves.size(); i++) {
+            push(model.apply(moves.get(i)));
+            if (search(model, depth + 1)) {
+                return true;
+            }
+            model.undo();
+            pathLength--;
+            if (isStopped()) {
+                break;
+            }
+        }
+        return false;
+    }
+
+    /** Returns true if move i of path is a draw (or turns the draw pile over). */
+    private boolean isDraw(int i) {
+        return i >= 0 && Move.isDraw(path[i]);
+    }
+
+    /** Returns the number of draws at the end of path. */
+    private int drawsInRow() {
+        int i = pathLength;
+        while (isDraw(i - 1)) {
+            i--;
+        }
+        return pathLength - i;
+    }
+
+    /** Returns true if the search should give up. */
+    boolean isStopped() {
+        return nodes >= maxNodes;
+    }
+
+    /** Records that one more position has been expanded. */
+    void countNode() {
+        nodes++;
+    }
+
+    /** Returns the move buffer for positions depth moves from the root. */
+    private MoveBuffer buffer(int depth) {
+        if (depth >= buffers.length) {
+            buffers = Arrays.copyOf(buffers, Math.max(depth + 1, 2 * buffers.length));
+        }
+        if (buffers[depth] == null) {
+            buffers[depth] = new MoveBuffer();
+        }
+        return buffers[depth];
+    }
+
+    /** Undoes the moves in path beyond its first mark entries. */
+    private void undoTo(KlondikeModel model, int mark) {
+        while (pathLength > mark) {
+            model.undo();
+            pathLength--;
+        }
+    }
+
+    /**
+     * Moves cards to the foundations as long as doing so cannot spoil a win:
+     * aces, twos, and cards whose possible successors (the next lower rank of
+     * the other color) are all on the foundations already. Cards on the draw
+     * pile are moved only when drawing one at a time: when drawing three,
+     * taking a card off the draw pile changes which cards later draws turn
+     * up, which can lose a win.
+     */
+    private void playSafeMoves(KlondikeModel model) {
+        int first = model.getRules().getDrawCount() == 1
+          ? KlondikeModel.DRAW_PILE : KlondikeModel.TABLEAU;
+        boolean moved = true;
+        while (moved) {
+            moved = false;
+            for (int p = first; p < KlondikeModel.PILE_COUNT; p++) {
+                if (p == KlondikeModel.FOUNDATION) {
+                    p = KlondikeModel.TABLEAU;
+                }
+                Card c = model.getPile(p).getTopCard();
+                if (c != null && model.canMoveToFoundation(c) && isSafe(model, c)) {
+                    push(model.apply(Move.of(p, KlondikeModel.FOUNDATION + c.getSuit().ordinal(), 1)));
+                    moved = true;
+                }
+            }
+        }
+    }
+
+    /**
+     * Sorts moves so that the most promising come first, and drops moves
+     * that merely shift a king from one empty column to another.
+     */
+    private void orderMoves(KlondikeModel model, MoveBuffer moves) {
+        int n = 0;
+        for (int i = 0; i < moves.size(); i++) {
+            int move = moves.get(i);
+            int score = score(model, move);
+            if (score < 0) {
+                continue;
+            }
+            // Insertion sort, best score first; there are few moves
+            int j = n - 1;
+            while (j >= 0 && scores[j] < score) {
+                moves.set(j + 1, moves.get(j));
+                scores[j + 1] = scores[j];
+                j--;
+            }
+            moves.set(j + 1, move);
+            scores[j + 1] = score;
+            n++;
+        }
+        while (moves.size() > n) {
+            moves.removeLast();
+        }
+    }
+
+    /**
+     * Rates a move: higher is tried earlier, negative is not tried at all.
+     * Foundation moves come first, then moves that turn up a card (the more
+     * cards still face down in the pile, the better), moves that empty a
+     * column, moves from the draw pile, other tableau moves and drawing.
+     * GreedyStrategy plays by the same ratings.
+     */
+    static int score(KlondikeModel model, int move) {
+        int source = Move.source(move);
+        int destination = Move.destination(move);
+        if (source == KlondikeModel.DECK) {
+            return 0;
+        }
+        Deck from = model.getPile(source);
+        int faceDown = from.getFaceDownCount();
+        boolean revealing = faceDown > 0 && from.size() - Move.count(move) == faceDown;
+        if (destination < KlondikeModel.TABLEAU) {
+            return revealing ? 100 : source == KlondikeModel.DRAW_PILE ? 90 : 80;
+        }
+        if (source == KlondikeModel.DRAW_PILE) {
+            return 50;
+        }
+        if (revealing) {
+            return 70 + faceDown;
+        }
+        if (from.size() == Move.count(move)) {
+            // A king moving between empty columns gains nothing
+            return model.getPile(destination).size() == 0 ? -1 : 60;
+        }
+        return SHIFT_SCORE;
+    }
+
+    /**
+     * Returns true if no card still in play could ever need c as a base, so
+     * that moving c to its foundation never makes the game harder.
+     */
+    private static boolean isSafe(KlondikeModel model, Card c) {
+        int rank = c.getRank().ordinal();
+        if (rank <= Rank.TWO.ordinal()) {
+            return true;
+        }
+        int[] opposite = c.isRed() ? BLACK_SUITS : RED_SUITS;
+        return model.getFoundation(opposite[0]).size() >= rank
+          && model.getFoundation(opposite[1]).size() >= rank;
+    }
+
+    /** Appends move to path, growing it if needed. */
+    void push(int move) {
+        if (pathLength == path.length) {
+            path = Arrays.copyOf(path, 2 * path.length);
+        }
+        path[pathLength++] = move;
+    }
+
+    /**
+     * Solves the deals whose numbers are given on the command line (deals 1
+     * to 10 by default) and prints the outcome, solution length and speed.
+     */
+    public static void main(String[] args) {
+        long[] deals = new long[args.length == 0 ? 10 : args.length];
+        for (int i = 0; i < deals.length; i++) {
+            deals[i] = args.length == 0 ? i + 1 : Long.parseLong(args[i]);
+        }
+        Solver solver = new Solver();
+        for (long deal : deals) {
+            Outcome outcome = solver.solve(new KlondikeModel(deal));
+            System.out.printf("deal %d: %s, %d moves, %d nodes, %.1f ms, %.0f nodes/s,"
+              + " table hit rate %.2f, fill %.4f%n",
+              deal, outcome, solver.getSolution().length, solver.getNodes(),
+              solver.getMillis(), solver.getNodesPerSecond(),
+              solver.getTable().getHitRate(), solver.getTable().getFillRatio());
+        }
+    }
+}
@@ -0,0 +1,51 @@
+/**
+ * Fast, non-cryptographic pseudorandom number generator (Steele, Lea and
+ * Flood's SplitMix64). The sequence is fully determined by the seed, so it is
+ * used to turn a deal number into the same shuffle on every machine and every
+ * Java version. Instances are not thread-safe; use {@link #split()} to hand an
+ * independent generator to another thread.
+ */
+public class SplitMix64 {
+
+    /** Odd constant added to the state for each value (the golden gamma). */
+    private static final long GAMMA = 0x9E3779B97F4A7C15L;
+
+    /** Current state; advanced by GAMMA on every call. */
+    private long state;
+
+    /** Creates a generator whose sequence is determined by seed. */
+    public SplitMix64(long seed) {
+        state = seed;
+    }
+
+    /** Returns the next pseudorandom long. */
+    public long nextLong() {
+        state += GAMMA;
+        return mix64(state);
+    }
+
+    /**
+     * Returns a pseudorandom int uniformly distributed from 0 (inclusive) to
+     * bound (exclusive). Values that would bias the result are rejected.
+     */
+    public int nextInt(int bound) {
+        int r = (int) (nextLong() >>> 33);
+        int m = bound - 1;
+        for (int u = r; u - (r = u % bound) + m < 0; u = (int) (nextLong() >>> 33)) {
+            // Retry until u falls in a range that is a multiple of bound
+        }
+        return r;
+    }
+
+    /** Returns a new generator whose sequence is independent of this one's. */
+    public SplitMix64 split() {
+        return new SplitMix64(nextLong());
+    }
+
+    /** Scrambles the bits of z (the SplitMix64 / MurmurHash3 finalizer). */
+    public static long mix64(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -0,0 +1,52 @@
+/**
+ * Player that picks the next move of a game. Strategies are handed the
+ * model itself and must leave its position as they found it; a strategy that
+ * looks ahead may apply and undo moves along the way, which forgets any
+ * moves that could have been redone.
+ * <p>
+ * Strategies usually keep move buffers and random generators of their own,
+ * so an instance must not be shared between threads; give each thread its
+ * own, for example through a Supplier.
+ */
+public interface Strategy {
+
+    /** Returned by chooseMove when the strategy will not move again. */
+    int NO_MOVE = -1;
+
+    /**
+     * Returns the move to play from model's position, in the encoding of
+     * Move, or NO_MOVE to give up the game.
+     */
+    int chooseMove(KlondikeModel model);
+
+    /**
+     * Returns a new built-in strategy by name: "random", "greedy",
+     * "lookahead-k" for a LookaheadStrategy of depth k ("lookahead" alone
+     * looks 2 moves ahead), or "mcts-n" for an MctsStrategy that runs n
+     * playouts per move in the caller's thread ("mcts" alone runs
+     * MctsStrategy.DEFAULT_PLAYOUTS). Random choices are determined by seed.
+     *
+     * @throws IllegalArgumentException if there is no strategy of that name
+     */
+    static Strategy of(String name, long seed) {
+        if (name.equals("random")) {
+            return new RandomStrategy(seed);
+        } else if (name.equals("greedy")) {
+            return new GreedyStrategy();
+        } else if (name.equals("lookahead")) {
+            return new LookaheadStrategy(2);
+        } else if (name.equals("mcts")) {
+            return new MctsStrategy(MctsStrategy.DEFAULT_PLAYOUTS, 0, seed);
+        }
+        try {
+            if (name.startsWith("lookahead-")) {
+                return new LookaheadStrategy(Integer.parseInt(name.substring("lookahead-".length())));
+            } else if (name.startsWith("mcts-")) {
+                return new MctsStrategy(Integer.parseInt(name.substring("mcts-".length())), 0, seed);
+            }
+        } catch (IllegalArgumentException e) {
+            // A bad number; fall through to the error below
+        }
+        throw new IllegalArgumentException("Unknown strategy: " + name);
+    }
+}
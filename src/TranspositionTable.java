@@ -0,0 +1,183 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Fixed-size table of positions already searched, keyed by 64-bit position
+ * hash, for the solvers. The entries live off the Java heap, in direct
+ * ByteBuffers of up to 1 GB each, so a table of any size from a megabyte to
+ * many gigabytes costs the garbage collector nothing, and never grows.
+ * <p>
+ * Entries are 16 bytes, four to a 64-byte bucket. Each records the depth at
+ * which its position was searched and the search it belongs to. When a
+ * bucket is full, a new position replaces an entry from an earlier search,
+ * or failing that the shallowest entry. A depth-first search comes back to
+ * positions near the line it is on, which are deep, far more often than to
+ * positions near the root, and forgetting the line itself lets the search
+ * run around cycles of draws and shifts. Starting a new search just moves
+ * on to a new age, so old entries need not be cleared.
+ * <p>
+ * Many threads may use a table at once without locks. An entry's two words
+ * are written separately, as the position's hash XORed with the data word
+ * and the data word itself, so a reader that sees half of one entry and
+ * half of another finds that the words do not match its hash and treats
+ * the entry as missing. Two threads adding the same position at the same
+ * time may both be told it is new; that costs some repeated work, never a
+ * wrong answer.
+ */
+public class TranspositionTable {
+
+    /** Smallest table, in bytes. */
+    public static final long MIN_BYTES = 1L << 20;
+
+    /** Default table size, in bytes. */
+    public static final long DEFAULT_BYTES = 256L << 20;
+
+    /** Bytes per entry: check word and data word. */
+    private static final int ENTRY_BYTES = 16;
+
+    /** Entries per bucket; a bucket fills one cache line. */
+    private static final int BUCKET_ENTRIES = 4;
+
+    /** log2 of the bytes per bucket. */
+    private static final int BUCKET_SHIFT = 6;
+
+    /** log2 of the largest segment, in bytes. */
+    private static final int SEGMENT_SHIFT = 30;
+
+    /** Bits of the data word holding the depth. */
+    private static final long DEPTH_MASK = 0xFFFF;
+
+    /** Position of the age in the data word. */
+    private static final int AGE_SHIFT = 16;
+
+    /** Bits of the data word holding the age, once shifted down. */
+    private static final long AGE_MASK = 0xFFFF;
+
+    /** Access to the longs of a segment as atomic, ordered memory. */
+    private static final VarHandle LONGS =
+      MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+
+    /** The entries, split into segments of equal size. */
+    private final ByteBuffer[] segments;
+
+    /** log2 of the buckets per segment. */
+    private final int bucketsPerSegmentShift;
+
+    /** Number of buckets, a power of two. */
+    private final long buckets;
+
+    /** Age of the current search; entries of other ages are stale. Never 0. */
+    private volatile int age = 1;
+
+    private final LongAdder probes = new LongAdder();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder filled = new LongAdder();
+
+    /**
+     * Creates a table of up to bytes bytes, rounded down to a power of two
+     * and to at least MIN_BYTES.
+     */
+    public TranspositionTable(long bytes) {
+        long size = Long.highestOneBit(Math.max(bytes, MIN_BYTES));
+        buckets = size >>> BUCKET_SHIFT;
+        long segmentSize = Math.min(size, 1L << SEGMENT_SHIFT);
+        bucketsPerSegmentShift = Long.numberOfTrailingZeros(segmentSize) - BUCKET_SHIFT;
+        segments = new ByteBuffer[(int) (size / segmentSize)];
+        for (int i = 0; i < segments.length; i++) {
+            segments[i] = ByteBuffer.allocateDirect((int) segmentSize).order(ByteOrder.nativeOrder());
+        }
+    }
+
+    /**
+     * Returns a table large enough for about maxNodes positions, between
+     * MIN_BYTES and DEFAULT_BYTES.
+     */
+    public static TranspositionTable forNodes(long maxNodes) {
+        long bytes = Math.max(MIN_BYTES, Math.min(DEFAULT_BYTES, 2 * maxNodes * ENTRY_BYTES));
+        return new TranspositionTable(Long.highestOneBit(bytes - 1) << 1);
+    }
+
+    /**
+     * Forgets every position, in constant time, and resets the statistics.
+     * Must not be called while another thread is using the table.
+     */
+    public void newSearch() {
+        int next = (age + 1) & (int) AGE_MASK;
+        if (next == 0) {
+            // The ages have wrapped around; entries that old must really go
+            for (ByteBuffer segment : segments) {
+                for (int i = 0; i < segment.capacity(); i += Long.BYTES) {
+                    segment.putLong(i, 0);
+                }
+            }
+            next = 1;
+        }
+        age = next;
+        probes.reset();
+        hits.reset();
+        filled.reset();
+    }
+
+    /**
+     * Records that the position with the given hash was reached depth moves
+     * from the root. Returns true if it is new to this search, false if it
+     * was already recorded (at any depth).
+     */
+    public boolean add(long hash, int depth) {
+        int currentAge = age;
+        long data = Math.min(depth, DEPTH_MASK) | (long) currentAge << AGE_SHIFT;
+        long bucket = SplitMix64.mix64(hash) & (buckets - 1);
+        ByteBuffer segment = segments[(int) (bucket >>> bucketsPerSegmentShift)];
+        int base = (int) (bucket & ((1L << bucketsPerSegmentShift) - 1)) << BUCKET_SHIFT;
+        probes.increment();
+
+        int victim = -1;
+        boolean victimStale = false;
+        long victimDepth = -1;
+        for (int i = 0; i < BUCKET_ENTRIES; i++) {
+            int offset = base + i * ENTRY_BYTES;
+            long check = (long) LONGS.getAcquire(segment, offset);
+            long oldData = (long) LONGS.getAcquire(segment, offset + Long.BYTES);
+            boolean current = (oldData >>> AGE_SHIFT & AGE_MASK) == currentAge;
+            if (current && (check ^ oldData) == hash) {
+                hits.increment();
+                return false;
+            }
+            if (victimStale) {
+                continue;
+            }
+            if (!current) {
+                victim = offset;
+                victimStale = true;
+            } else if (victimDepth < 0 || (oldData & DEPTH_MASK) < victimDepth) {
+                victim = offset;
+                victimDepth = oldData & DEPTH_MASK;
+            }
+        }
+        if (victimStale) {
+            filled.increment();
+        }
+        LONGS.setRelease(segment, victim + Long.BYTES, data);
+        LONGS.setRelease(segment, victim, hash ^ data);
+        return true;
+    }
+
+    /** Returns the capacity of the table, in entries. */
+    public long capacity() {
+        return buckets * BUCKET_ENTRIES;
+    }
+
+    /** Returns the share of add calls in this search that found their position. */
+    public double getHitRate() {
+        long n = probes.sum();
+        return n == 0 ? 0 : (double) hits.sum() / n;
+    }
+
+    /** Returns the share of entries that hold positions of this search. */
+    public double getFillRatio() {
+        return Math.min(1, (double) filled.sum() / capacity());
+    }
+}